@@ -0,0 +1,118 @@
+package net.trollyloki.mcchess.benchmark;
+
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Board;
+import net.trollyloki.mcchess.game.Game;
+import net.trollyloki.mcchess.game.move.Move;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the notation and serialization paths used on every engine move and debug command,
+ * against an in-memory {@link BitBoard}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotationBenchmark {
+
+    /**
+     * Ruy Lopez after 3...a6, where white has quiet moves, captures and castling available.
+     */
+    private static final String[] OPENING = {"e2e4", "e7e5", "g1f3", "b8c6", "f1b5", "a7a6"};
+
+    private Game game;
+    private Board board;
+    private String fen;
+    private String placement;
+
+    @Setup
+    public void setup() {
+        game = playOpening();
+        board = new BitBoard();
+        fen = game.toFEN();
+        placement = game.getPosition().toFEN();
+    }
+
+    private static Game playOpening() {
+        Game game = Game.fromFEN(Game.STANDARD_FEN, new BitBoard());
+        for (String move : OPENING)
+            game.performUciMove(move);
+        return game;
+    }
+
+    /**
+     * The same white moves in both notations, kept apart so that only the parsing benchmarks are parameterized.
+     */
+    @State(Scope.Thread)
+    public static class Moves {
+
+        private static final String[] SAN = {"Nc3", "Bxc6", "O-O"};
+        private static final String[] UCI = {"b1c3", "b5c6", "e1g1"};
+
+        @Param({"0", "1", "2"})
+        public int move;
+
+        private Game game;
+        private String san, uci;
+
+        @Setup
+        public void setup() {
+            game = playOpening();
+            san = SAN[move];
+            uci = UCI[move];
+        }
+
+    }
+
+    @Benchmark
+    public Move moveFromSAN(Moves moves) {
+        return Move.fromSAN(moves.san, moves.game);
+    }
+
+    @Benchmark
+    public Move moveFromUCI(Moves moves) {
+        return Move.fromUCI(moves.uci, moves.game.getPosition());
+    }
+
+    @Benchmark
+    public String boardToFEN() {
+        return game.getPosition().toFEN();
+    }
+
+    @Benchmark
+    public Board boardLoadFromFEN() {
+        board.loadFromFEN(placement);
+        return board;
+    }
+
+    @Benchmark
+    public Game gameFromFEN() {
+        return Game.fromFEN(fen, board);
+    }
+
+    @Benchmark
+    public String gameToFEN() {
+        return game.toFEN();
+    }
+
+    @Benchmark
+    public String gameToPGN() {
+        return game.toPGN();
+    }
+
+}
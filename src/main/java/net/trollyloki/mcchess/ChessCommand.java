@@ -4,11 +4,19 @@ import net.andreinc.neatchess.client.exception.UCIRuntimeException;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
+import net.trollyloki.mcchess.board.BitBoard;
 import net.trollyloki.mcchess.board.Board;
 import net.trollyloki.mcchess.board.PhysicalBoard;
 import net.trollyloki.mcchess.board.Piece;
 import net.trollyloki.mcchess.game.Game;
+import net.trollyloki.mcchess.game.MoveJournal;
+import net.trollyloki.mcchess.game.move.CompactMove;
+import net.trollyloki.mcchess.game.move.MoveGenerator;
+import net.trollyloki.mcchess.game.move.Perft;
+import net.trollyloki.mcchess.game.player.AlphaBetaPlayer;
+import net.trollyloki.mcchess.game.player.ComputerPlayer;
 import net.trollyloki.mcchess.game.player.EnginePlayer;
+import net.trollyloki.mcchess.game.player.EnginePool;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.block.BlockFace;
@@ -16,24 +24,39 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.ItemFrame;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.hanging.HangingPlaceEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
 
 public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
 
@@ -41,8 +64,33 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
 
     private final Map<UUID, Board> boards = new HashMap<>();
     private final Map<UUID, Game> games = new HashMap<>();
-    private final Map<UUID, EnginePlayer> engines = new HashMap<>();
+    private final Map<UUID, ComputerPlayer> engines = new HashMap<>();
     private final Map<UUID, BukkitRunnable> tasks = new HashMap<>();
+    private @Nullable MoveJournal journal;
+
+    /**
+     * Sets the journal that records the moves of every game started from now on.
+     *
+     * @param journal journal, or {@code null} to stop journaling new games
+     */
+    public void setJournal(@Nullable MoveJournal journal) {
+        this.journal = journal;
+    }
+
+    private void setGame(@NotNull UUID player, @NotNull Game game) {
+        stopPondering(player);
+        games.put(player, game);
+        if (journal != null)
+            journal.start(player, game);
+    }
+
+    /**
+     * Stops a player's engine from pondering on a game that has ended or is being replaced.
+     */
+    private void stopPondering(@NotNull UUID player) {
+        if (engines.get(player) instanceof EnginePlayer enginePlayer)
+            enginePlayer.stopPondering();
+    }
 
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String @NotNull [] args) {
@@ -186,15 +234,35 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
 
                         try {
                             game.performUciMove(args[2]);
+                            if (game.isOver())
+                                stopPondering(player.getUniqueId());
                             return true;
-                        } catch (IndexOutOfBoundsException e) {
+                        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
                             player.sendMessage(Component.text("Invalid move: " + e.getMessage(), NamedTextColor.RED));
                             return false;
                         }
 
+                    } else if (args[1].equalsIgnoreCase("undo")) {
+
+                        if (!games.containsKey(player.getUniqueId())) {
+                            player.sendMessage(Component.text("You have not started a game", NamedTextColor.RED));
+                            return false;
+                        }
+                        Game game = games.get(player.getUniqueId());
+
+                        if (game.getPlyCount() == 0) {
+                            player.sendMessage(Component.text("There are no moves to undo", NamedTextColor.RED));
+                            return false;
+                        }
+
+                        int move = game.undoMove();
+                        game.getJournal().ifPresent(log -> log.truncate(game.getPlyCount()));
+                        player.sendMessage(Component.text("Undid " + CompactMove.toUCI(move), NamedTextColor.GREEN));
+                        return true;
+
                     } else if (args[1].equalsIgnoreCase("newgame")) {
 
-                        games.put(player.getUniqueId(), new Game(board));
+                        setGame(player.getUniqueId(), new Game(board));
                         player.sendMessage(Component.text("New game started", NamedTextColor.GREEN));
                         return true;
 
@@ -206,7 +274,7 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                         }
 
                         try {
-                            games.put(player.getUniqueId(), Game.fromFEN(String.join(" ", Arrays.copyOfRange(args, 2, 8)), board));
+                            setGame(player.getUniqueId(), Game.fromFEN(String.join(" ", Arrays.copyOfRange(args, 2, 8)), board));
                             player.sendMessage(Component.text("Game loaded from FEN", NamedTextColor.GREEN));
                             return true;
                         } catch (Exception e) {
@@ -214,11 +282,78 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                             return false;
                         }
 
+                    } else if (args[1].equalsIgnoreCase("perft")) {
+
+                        if (args.length == 2) {
+                            sender.sendMessage(Component.text("Usage: /" + label + " debug perft <depth> [position]", NamedTextColor.RED));
+                            return false;
+                        }
+
+                        if (tasks.containsKey(player.getUniqueId())) {
+                            sender.sendMessage(Component.text("Please wait for your current action to complete", NamedTextColor.RED));
+                            return false;
+                        }
+
+                        Perft perft;
+                        int depth;
+                        try {
+                            depth = Integer.parseInt(args[2]);
+                            perft = new Perft(depth);
+                        } catch (IllegalArgumentException e) {
+                            sender.sendMessage(Component.text("Invalid depth: " + args[2], NamedTextColor.RED));
+                            return false;
+                        }
+
+                        Perft.Position reference = null;
+                        Game game;
+                        if (args.length > 3) {
+
+                            try {
+                                reference = Perft.Position.valueOf(args[3].toUpperCase(Locale.ROOT));
+                            } catch (IllegalArgumentException e) {
+                                sender.sendMessage(Component.text(args[3] + " is not a reference position. Options: " + Arrays.stream(Perft.Position.values())
+                                        .map(Perft.Position::name).map(String::toLowerCase).toList(), NamedTextColor.RED));
+                                return false;
+                            }
+                            game = Game.fromFEN(reference.getFEN(), new BitBoard());
+
+                        } else {
+
+                            if (!games.containsKey(player.getUniqueId())) {
+                                player.sendMessage(Component.text("You have not started a game", NamedTextColor.RED));
+                                return false;
+                            }
+                            game = Game.fromFEN(games.get(player.getUniqueId()).toFEN(), new BitBoard());
+
+                        }
+
+                        player.sendMessage(Component.text("Running perft...", NamedTextColor.YELLOW));
+                        tasks.put(player.getUniqueId(), null);
+                        Perft.Position expected = reference;
+                        Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+                            long start = System.nanoTime();
+                            Map<String, Long> divide = perft.divide(game, depth);
+                            long elapsed = System.nanoTime() - start;
+                            tasks.remove(player.getUniqueId());
+
+                            long nodes = 0;
+                            for (Map.Entry<String, Long> entry : divide.entrySet()) {
+                                player.sendMessage(Component.text(entry.getKey() + ": " + entry.getValue(), NamedTextColor.GRAY));
+                                nodes += entry.getValue();
+                            }
+                            player.sendMessage(Component.text("Nodes: " + nodes + " in " + elapsed / 1_000_000 + " ms ("
+                                    + nodes * 1_000_000_000 / Math.max(elapsed, 1) + " nps)", NamedTextColor.GREEN));
+
+                            if (expected != null && depth <= expected.getMaxDepth() && nodes != expected.getNodes(depth))
+                                player.sendMessage(Component.text("Expected " + expected.getNodes(depth) + " nodes", NamedTextColor.RED));
+                        });
+                        return true;
+
                     }
 
                 }
 
-                sender.sendMessage(Component.text("Usage: /" + label + " debug <fen|board|game|turn|move|newgame|load|engine>", NamedTextColor.RED));
+                sender.sendMessage(Component.text("Usage: /" + label + " debug <fen|board|game|turn|move|undo|newgame|load|perft|engine>", NamedTextColor.RED));
                 return false;
 
             } else if (args[0].equalsIgnoreCase("engine") && sender.hasPermission(ADMIN_PERMISSION)) {
@@ -243,10 +378,30 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                             return false;
                         }
 
+                        EnginePool pool = ChessPlugin.enginePool();
+                        if (args.length > 2 && args[2].equalsIgnoreCase("builtin")
+                                || pool == null && !Files.isExecutable(Path.of(ChessPlugin.engine()))) {
+                            engines.put(player.getUniqueId(), new AlphaBetaPlayer(ChessPlugin.builtinEngineHash()));
+                            sender.sendMessage(Component.text("Started built-in engine", NamedTextColor.GREEN));
+                            return true;
+                        }
+                        if (pool != null) {
+                            EnginePlayer engine = new EnginePlayer(pool);
+                            engine.setBook(ChessPlugin.book());
+                            engine.setCache(ChessPlugin.engineCache());
+                            engines.put(player.getUniqueId(), engine);
+                            sender.sendMessage(Component.text("Started engine", NamedTextColor.GREEN));
+                            return true;
+                        }
+
                         Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
                             try {
 
-                                engines.put(player.getUniqueId(), new EnginePlayer(ChessPlugin.engine()));
+                                EnginePlayer engine = new EnginePlayer(ChessPlugin.engine());
+                                engine.setBook(ChessPlugin.book());
+                                engine.setCache(ChessPlugin.engineCache());
+                                engine.setPonder(ChessPlugin.enginePonder());
+                                engines.put(player.getUniqueId(), engine);
                                 sender.sendMessage(Component.text("Started engine", NamedTextColor.GREEN));
 
                             } catch (UCIRuntimeException e) {
@@ -263,7 +418,7 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                             player.sendMessage(Component.text("You have not started an engine", NamedTextColor.RED));
                             return false;
                         }
-                        EnginePlayer engine = engines.get(player.getUniqueId());
+                        ComputerPlayer engine = engines.get(player.getUniqueId());
 
                         if (args.length == 2) {
                             sender.sendMessage(Component.text("Usage: /" + label + " engine move <ms>", NamedTextColor.RED));
@@ -288,7 +443,9 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                                 if (exception != null) {
                                     player.sendMessage(Component.text("Failed to move: " + exception, NamedTextColor.RED));
                                 } else {
-                                    if (moved)
+                                    if (moved && engine instanceof AlphaBetaPlayer alphaBeta && alphaBeta.getLastResult().isPresent())
+                                        player.sendMessage(Component.text("Engine made a move: " + alphaBeta.getLastResult().get(), NamedTextColor.GREEN));
+                                    else if (moved)
                                         player.sendMessage(Component.text("Engine made a move", NamedTextColor.GREEN));
                                     else
                                         player.sendMessage(Component.text("Engine did not make a move", NamedTextColor.RED));
@@ -307,7 +464,7 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                             player.sendMessage(Component.text("You have not started an engine", NamedTextColor.RED));
                             return false;
                         }
-                        EnginePlayer engine = engines.get(player.getUniqueId());
+                        ComputerPlayer engine = engines.get(player.getUniqueId());
 
                         if (args.length == 2) {
                             sender.sendMessage(Component.text("Usage: /" + label + " engine play <ms>", NamedTextColor.RED));
@@ -335,13 +492,16 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                                 public void run() {
                                     try {
 
-                                        while (!cancel) {
+                                        while (!cancel && !game.isOver()) {
                                             if (!game.play().get()) {
                                                 player.sendMessage(Component.text(game.getActiveColor() + " did not make a move!", NamedTextColor.RED));
                                                 break;
                                             }
                                         }
 
+                                        game.getTermination().ifPresent(termination -> player.sendMessage(Component.text(
+                                                "Game over: " + game.getResult() + " by " + termination.getDescription(), NamedTextColor.GREEN)));
+
                                     } catch (ExecutionException e) {
 
                                         player.sendMessage(Component.text(game.getActiveColor() + " failed to move: " + e, NamedTextColor.RED));
@@ -349,6 +509,8 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                                     } catch (InterruptedException e) {
                                         e.printStackTrace();
                                     }
+                                    if (engine instanceof EnginePlayer enginePlayer)
+                                        enginePlayer.stopPondering();
                                     tasks.remove(player.getUniqueId());
                                 }
 
@@ -450,8 +612,19 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                 options.add("game");
                 options.add("turn");
                 options.add("move");
+                options.add("undo");
                 options.add("newgame");
                 options.add("load");
+                options.add("perft");
+
+            } else if (args[1].equalsIgnoreCase("perft")) {
+
+                if (args.length == 4) {
+
+                    for (Perft.Position position : Perft.Position.values())
+                        options.add(position.name().toLowerCase(Locale.ROOT));
+
+                }
 
             } else if (args[1].equalsIgnoreCase("move")) {
 
@@ -499,6 +672,10 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
                 options.add("cancel");
                 options.add("stop");
 
+            } else if (args.length == 3 && args[1].equalsIgnoreCase("start")) {
+
+                options.add("builtin");
+
             }
 
         }
@@ -508,14 +685,186 @@ public class ChessCommand implements CommandExecutor, TabCompleter, Listener {
         return options;
     }
 
+    private static final int SNAPSHOT_MAGIC = 0x4D434353; // "MCCS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int HAS_BOARD = 1, HAS_GAME = 2, GAME_HAS_OWN_BOARD = 4;
+
+    /**
+     * Writes every registered physical board and game to a compact binary snapshot.
+     * <br>
+     * Each player's entry is length prefixed, so one that cannot be restored, such as a board in a world that is gone,
+     * is skipped without losing the rest. Engines are not included and must be started again.
+     *
+     * @param out destination
+     * @throws IOException if an I/O error occurs
+     * @see #readSnapshot(DataInput, Logger)
+     */
+    public void writeSnapshot(@NotNull DataOutput out) throws IOException {
+        Set<UUID> players = new LinkedHashSet<>(boards.keySet());
+        players.addAll(games.keySet());
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeShort(SNAPSHOT_VERSION);
+        out.writeInt(players.size());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream entry = new DataOutputStream(buffer);
+        for (UUID player : players) {
+            buffer.reset();
+            entry.writeLong(player.getMostSignificantBits());
+            entry.writeLong(player.getLeastSignificantBits());
+
+            Board board = boards.get(player);
+            Game game = games.get(player);
+            PhysicalBoard physicalBoard = board instanceof PhysicalBoard b ? b : null;
+            PhysicalBoard gameBoard = game != null && game.getBoard() instanceof PhysicalBoard b ? b : null;
+
+            entry.writeByte((physicalBoard != null ? HAS_BOARD : 0) | (gameBoard != null ? HAS_GAME : 0)
+                    | (gameBoard != null && gameBoard != physicalBoard ? GAME_HAS_OWN_BOARD : 0));
+            if (physicalBoard != null)
+                physicalBoard.write(entry);
+            if (gameBoard != null) {
+                if (gameBoard != physicalBoard)
+                    gameBoard.write(entry);
+                game.writeSnapshot(entry);
+            }
+
+            out.writeInt(buffer.size());
+            out.write(buffer.toByteArray());
+        }
+    }
+
+    /**
+     * Restores the boards and games in a snapshot written by {@link #writeSnapshot(DataOutput)}, replacing any that are registered.
+     *
+     * @param in     source
+     * @param logger logger to warn about entries that cannot be restored
+     * @return number of entries restored
+     * @throws IOException if an I/O error occurs or the data is not a snapshot
+     */
+    public int readSnapshot(@NotNull DataInput in, @NotNull Logger logger) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC)
+            throw new IOException("Not a snapshot");
+        int version = in.readUnsignedShort();
+        if (version != SNAPSHOT_VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+
+        int restored = 0;
+        for (int count = in.readInt(); count > 0; count--) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            UUID player = new UUID(entry.readLong(), entry.readLong());
+            try {
+                int flags = entry.readUnsignedByte();
+                PhysicalBoard board = (flags & HAS_BOARD) != 0 ? PhysicalBoard.read(entry) : null;
+                Game game = null;
+                if ((flags & HAS_GAME) != 0) {
+                    Board gameBoard = (flags & GAME_HAS_OWN_BOARD) != 0 ? PhysicalBoard.read(entry) : board;
+                    if (gameBoard == null)
+                        throw new IOException("Game has no board");
+                    game = Game.readSnapshot(entry, gameBoard);
+                }
+
+                if (board != null)
+                    boards.put(player, board);
+                if (game != null)
+                    games.put(player, game);
+                restored++;
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Skipping snapshot entry for " + player + ": " + e.getMessage());
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Replays the moves in the {@linkplain #setJournal journal} on top of the games restored from the last snapshot,
+     * then starts journaling every game.
+     * <br>
+     * A journaled game that started after the snapshot replaces the snapshot's game on the same board.
+     * Journal files of players without a board are deleted.
+     *
+     * @param logger logger to warn about journal files that cannot be recovered
+     * @return number of games that had moves recovered
+     * @throws IOException if the journal directory cannot be read
+     */
+    public int recoverJournal(@NotNull Logger logger) throws IOException {
+        if (journal == null)
+            throw new IllegalStateException("No journal has been set");
+
+        int recovered = 0;
+        for (UUID player : journal.list()) {
+            Game game = games.get(player);
+            Board board = game != null ? game.getBoard() : boards.get(player);
+            if (board == null)
+                continue;
+
+            try {
+                MoveJournal.Recording recording = journal.read(player);
+                if (recording == null)
+                    continue;
+                int[] moves = recording.getMoves();
+
+                if (game != null && game.getInitialFEN().equals(recording.getInitialFEN())) {
+                    int common = 0, limit = Math.min(moves.length, game.getPlyCount());
+                    while (common < limit && game.getCompactMove(common) == moves[common])
+                        common++;
+                    if (common == moves.length)
+                        continue; // the snapshot is up to date
+                    while (game.getPlyCount() > common)
+                        game.undoMove(); // moves were taken back after the snapshot
+                } else {
+                    game = Game.fromFEN(recording.getInitialFEN(), board); // a new game was started after the snapshot
+                }
+                for (int i = game.getPlyCount(); i < moves.length; i++) {
+                    if (!MoveGenerator.isLegal(game, moves[i]))
+                        throw new IOException("Illegal move " + CompactMove.toUCI(moves[i]) + " at ply " + i);
+                    game.makeMove(moves[i]);
+                }
+                games.put(player, game);
+                recovered++;
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Could not recover journaled moves for " + player + ": " + e.getMessage());
+            }
+        }
+
+        for (UUID player : journal.list())
+            if (!games.containsKey(player))
+                journal.delete(player);
+        for (Map.Entry<UUID, Game> entry : games.entrySet())
+            journal.start(entry.getKey(), entry.getValue());
+        return recovered;
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerQuit(@NotNull PlayerQuitEvent event) {
         BukkitRunnable runnable = tasks.remove(event.getPlayer().getUniqueId());
         if (runnable != null)
             runnable.cancel();
-        EnginePlayer engine = engines.remove(event.getPlayer().getUniqueId());
+        ComputerPlayer engine = engines.remove(event.getPlayer().getUniqueId());
         if (engine != null)
             engine.close();
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onHangingPlace(@NotNull HangingPlaceEvent event) {
+        if (!(event.getEntity() instanceof ItemFrame itemFrame))
+            return;
+
+        for (Board board : boards.values()) {
+            if (board instanceof PhysicalBoard physicalBoard && physicalBoard.getSquareOf(itemFrame).isPresent())
+                physicalBoard.invalidateItemFrames();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(@NotNull EntitiesLoadEvent event) {
+        for (Board board : boards.values()) {
+            if (board instanceof PhysicalBoard physicalBoard && physicalBoard.isInChunk(event.getChunk()))
+                physicalBoard.invalidateItemFrames();
+        }
+    }
+
 }
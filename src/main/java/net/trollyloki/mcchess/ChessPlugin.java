@@ -2,8 +2,14 @@ package net.trollyloki.mcchess;
 
 import net.kyori.adventure.text.Component;
 import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.game.MoveJournal;
+import net.trollyloki.mcchess.game.PolyglotBook;
+import net.trollyloki.mcchess.game.player.EngineCache;
+import net.trollyloki.mcchess.game.player.EnginePool;
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.persistence.PersistentDataType;
@@ -12,10 +18,19 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.logging.Level;
 
 public class ChessPlugin extends JavaPlugin {
 
@@ -27,8 +42,19 @@ public class ChessPlugin extends JavaPlugin {
 
     private static NamespacedKey pieceTypeKey;
 
+    private static final String SNAPSHOT_FILE = "snapshot.dat", JOURNAL_DIRECTORY = "journal";
+
+    private ChessCommand command;
+    private MoveJournal journal;
+    private long snapshotsTaken = 0, snapshotsWritten = 0;
+
     private static String defaultSite;
     private static String engineCommand;
+    private static boolean enginePonder;
+    private static int builtinEngineHash;
+    private static @Nullable PolyglotBook book;
+    private static @Nullable EnginePool enginePool;
+    private static @Nullable EngineCache engineCache;
     private static final @NotNull Map<Piece.Type, String> PIECE_NAMES = new HashMap<>();
     private static final @NotNull Map<Piece, Material> PIECE_TO_MATERIAL = new HashMap<>();
     private static final @NotNull Map<Material, Piece> MATERIAL_TO_PIECE = new HashMap<>();
@@ -42,22 +68,122 @@ public class ChessPlugin extends JavaPlugin {
         saveDefaultConfig();
         reloadConfig();
 
+        command = new ChessCommand();
         //noinspection DataFlowIssue
-        getCommand("chess").setExecutor(new ChessCommand());
+        getCommand("chess").setExecutor(command);
+        getServer().getPluginManager().registerEvents(command, this);
+
+        loadSnapshot();
+        openJournal();
+        startEnginePool();
+        createEngineCache();
+        long interval = getConfig().getLong("snapshot-interval") * 20;
+        if (interval > 0)
+            Bukkit.getScheduler().runTaskTimer(this, () -> saveSnapshot(true), interval, interval);
 
     }
 
     @Override
     public void onDisable() {
+        if (command != null)
+            saveSnapshot(false);
+        if (journal != null)
+            journal.close();
+        closeBook();
+        if (enginePool != null) {
+            enginePool.close();
+            enginePool = null;
+        }
+        engineCache = null;
         instance = null;
     }
 
+    private @NotNull Path getSnapshotPath() {
+        return getDataFolder().toPath().resolve(SNAPSHOT_FILE);
+    }
+
+    /**
+     * Restores the boards and games saved in the last snapshot, if there is one.
+     */
+    private void loadSnapshot() {
+        Path path = getSnapshotPath();
+        if (!Files.exists(path))
+            return;
+
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int restored = command.readSnapshot(in, getLogger());
+            getLogger().info("Restored " + restored + " boards from snapshot in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Failed to restore snapshot", e);
+        }
+    }
+
+    /**
+     * Opens the move journal, replays it on top of the restored snapshot and starts journaling every game.
+     */
+    private void openJournal() {
+        try {
+            journal = new MoveJournal(getDataFolder().toPath().resolve(JOURNAL_DIRECTORY), getLogger());
+            command.setJournal(journal);
+            int recovered = command.recoverJournal(getLogger());
+            if (recovered > 0)
+                getLogger().info("Recovered moves of " + recovered + " games from journal");
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Failed to open move journal", e);
+        }
+    }
+
+    /**
+     * Saves a snapshot of all boards and games.
+     * <br>
+     * The snapshot is encoded on the calling thread, which must be the main thread so that it sees consistent games.
+     * Only writing it to disk is done asynchronously, replacing the previous snapshot atomically.
+     *
+     * @param async {@code true} to write the file on another thread, or {@code false} to wait for it
+     */
+    public void saveSnapshot(boolean async) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            command.writeSnapshot(new DataOutputStream(buffer));
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Failed to encode snapshot", e);
+            return;
+        }
+
+        byte[] bytes = buffer.toByteArray();
+        long sequence = ++snapshotsTaken;
+        if (async)
+            Bukkit.getScheduler().runTaskAsynchronously(this, () -> writeSnapshot(bytes, sequence));
+        else
+            writeSnapshot(bytes, sequence);
+    }
+
+    private synchronized void writeSnapshot(byte @NotNull [] bytes, long sequence) {
+        if (sequence <= snapshotsWritten)
+            return; // a newer snapshot has already been written
+
+        Path path = getSnapshotPath();
+        Path temporary = path.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotsWritten = sequence;
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Failed to write snapshot", e);
+        }
+    }
+
     @Override
     public void reloadConfig() {
         super.reloadConfig();
         FileConfiguration config = getConfig();
 
         engineCommand = config.getString("engine");
+        enginePonder = config.getBoolean("engine-ponder", true);
+        builtinEngineHash = config.getInt("builtin-engine.hash", 16);
+        loadBook(config.getString("book", ""));
         defaultSite = config.getString("default-site");
 
         PIECE_NAMES.clear();
@@ -78,7 +204,7 @@ public class ChessPlugin extends JavaPlugin {
             }
 
             for (Color color : Color.values()) {
-                Piece piece = new Piece(color, type);
+                Piece piece = Piece.of(color, type);
 
                 String path = "pieces.materials.%s.%s".formatted(
                         color.name().toLowerCase(Locale.ROOT),
@@ -99,6 +225,123 @@ public class ChessPlugin extends JavaPlugin {
         return engineCommand;
     }
 
+    /**
+     * Checks if engines that have their own process should ponder on the opponent's time.
+     *
+     * @return {@code true} to ponder
+     */
+    public static boolean enginePonder() {
+        return enginePonder;
+    }
+
+    /**
+     * Gets the size of the transposition table of each built-in engine player.
+     *
+     * @return size in megabytes
+     */
+    public static int builtinEngineHash() {
+        return builtinEngineHash;
+    }
+
+    /**
+     * Gets the pool of engine processes shared by engine players.
+     *
+     * @return engine pool, or {@code null} if it is disabled or has not started yet
+     */
+    public static @Nullable EnginePool enginePool() {
+        return enginePool;
+    }
+
+    /**
+     * Starts the configured number of engine processes in the background.
+     */
+    private void startEnginePool() {
+        ConfigurationSection config = getConfig().getConfigurationSection("engine-pool");
+        int size = config != null ? config.getInt("size") : 0;
+        if (size <= 0)
+            return;
+
+        Map<String, String> options = new HashMap<>();
+        ConfigurationSection optionsSection = config.getConfigurationSection("options");
+        if (optionsSection != null)
+            for (String option : optionsSection.getKeys(false))
+                options.put(option, optionsSection.getString(option, ""));
+
+        String command = engineCommand;
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                EnginePool pool = new EnginePool(command, size, 60000L, options);
+                Bukkit.getScheduler().runTask(this, () -> {
+                    if (instance != this) {
+                        pool.close();
+                        return;
+                    }
+                    enginePool = pool;
+                    getLogger().info("Started " + size + " pooled engine processes");
+                });
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "Failed to start engine pool, players will start their own engines", e);
+            }
+        });
+    }
+
+    /**
+     * Gets the cache of engine results shared by engine players.
+     *
+     * @return engine cache, or {@code null} if it is disabled
+     */
+    public static @Nullable EngineCache engineCache() {
+        return engineCache;
+    }
+
+    /**
+     * Creates the engine cache with the configured size, and logs its statistics at the configured interval.
+     */
+    private void createEngineCache() {
+        ConfigurationSection config = getConfig().getConfigurationSection("engine-cache");
+        int size = config != null ? config.getInt("size") : 0;
+        if (size <= 0)
+            return;
+
+        EngineCache cache = new EngineCache(size);
+        engineCache = cache;
+        long interval = config.getLong("stats-interval") * 20;
+        if (interval > 0)
+            Bukkit.getScheduler().runTaskTimer(this, () -> getLogger().info(cache.toString()), interval, interval);
+    }
+
+    /**
+     * Gets the opening book that engines play from.
+     *
+     * @return book, or {@code null} if none is configured
+     */
+    public static @Nullable PolyglotBook book() {
+        return book;
+    }
+
+    private void loadBook(@NotNull String path) {
+        closeBook();
+        if (path.isEmpty())
+            return;
+
+        try {
+            book = PolyglotBook.open(getDataFolder().toPath().resolve(path));
+            getLogger().info("Loaded opening book with " + book.getEntryCount() + " entries");
+        } catch (Exception | LinkageError e) {
+            getLogger().log(Level.WARNING, "Failed to load opening book " + path, e);
+        }
+    }
+
+    private static void closeBook() {
+        if (book == null)
+            return;
+        try {
+            book.close();
+        } catch (IOException ignored) {
+        }
+        book = null;
+    }
+
     /**
      * Get the default site for this server.
      *
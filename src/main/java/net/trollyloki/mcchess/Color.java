@@ -3,18 +3,15 @@ package net.trollyloki.mcchess;
 import it.unimi.dsi.fastutil.chars.Char2CharFunction;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public enum Color {
     WHITE('w', 0, 1, Character::toUpperCase),
     BLACK('b', 7, -1, Character::toLowerCase);
 
-    private static final Map<Character, Color> LETTER_MAP = new HashMap<>();
+    private static final Color[] LETTER_TABLE = new Color[128];
 
     static {
         for (Color color : values())
-            LETTER_MAP.put(color.letter, color);
+            LETTER_TABLE[color.letter] = LETTER_TABLE[Character.toUpperCase(color.letter)] = color;
     }
 
     private final char letter;
@@ -33,10 +30,10 @@ public enum Color {
     }
 
     public static @NotNull Color fromLetter(char letter) {
-        letter = Character.toLowerCase(letter);
-        if (!LETTER_MAP.containsKey(letter))
+        Color color = letter < LETTER_TABLE.length ? LETTER_TABLE[letter] : null;
+        if (color == null)
             throw new IllegalArgumentException("Invalid FEN letter");
-        return LETTER_MAP.get(letter);
+        return color;
     }
 
     public int getBackRank() {
@@ -0,0 +1,255 @@
+package net.trollyloki.mcchess.board;
+
+import net.trollyloki.mcchess.Color;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Precomputed attack tables for {@link BitBoard} square indices.
+ * <br>
+ * Square indices run from a1 ({@code 0}) to h8 ({@code 63}), rank by rank.
+ * Sliding piece attacks are looked up in magic bitboard tables.
+ *
+ * @see <a href="https://www.chessprogramming.org/Magic_Bitboards">Magic Bitboards</a>
+ */
+public final class Attacks {
+
+    private Attacks() {
+    }
+
+    private static final int[][] DIRECTIONS = {
+            {0, 1}, {1, 1}, {1, 0}, {-1, 1}, // increasing indices
+            {0, -1}, {-1, -1}, {-1, 0}, {1, -1} // decreasing indices
+    };
+    private static final int NORTH = 0, NORTH_EAST = 1, EAST = 2, NORTH_WEST = 3,
+            SOUTH = 4, SOUTH_WEST = 5, WEST = 6, SOUTH_EAST = 7;
+
+    private static final long[] KNIGHT = new long[64], KING = new long[64];
+    private static final long[][] PAWN = new long[2][64];
+    private static final long[][] RAYS = new long[8][64];
+    private static final long[][] BETWEEN = new long[64][64];
+    private static final long[][] LINE = new long[64][64];
+
+    private static final long[] ROOK_MASKS = new long[64], BISHOP_MASKS = new long[64];
+
+    // found once by a seeded trial and error search, so that loading this class does not have to search again
+    private static final long[] ROOK_MAGICS = {
+            0x008000908064C000L, 0x0040200040001000L, 0x0180100080A0010AL, 0x8880041000800800L,
+            0x1200100201200804L, 0x0200020004011008L, 0x2180010000800600L, 0x0200005088210204L,
+            0x0000800080204001L, 0x1000804000802001L, 0x8240801000200080L, 0x8611001004200900L,
+            0x008180800C001800L, 0x0100800200800400L, 0x0A02000102000408L, 0x8020802300104280L,
+            0x0080004000402000L, 0xE010104000402000L, 0x0800808010002000L, 0xA280210008100100L,
+            0x0001818014000800L, 0xA002010100080400L, 0x0008040088020130L, 0x0001020004048845L,
+            0x0081826280004004L, 0x2020810900284000L, 0x0200100080802000L, 0x0200080080100080L,
+            0x8083080100100500L, 0x4406000901000400L, 0x0005020080800100L, 0x0090204200008114L,
+            0x0010400094800420L, 0x0900804000802002L, 0x0201001841002000L, 0x4100080080801000L,
+            0x4540040080800800L, 0x0000800400800200L, 0x9281800100808200L, 0x8004048102000854L,
+            0x4420802040008006L, 0x0880500020004002L, 0x0801200241050010L, 0x8400080010008080L,
+            0x0008000500090010L, 0x0082009084020008L, 0x4012000108020004L, 0x9000104D08860004L,
+            0x2004204114800100L, 0x0148802112400300L, 0x0202842000100880L, 0x001B080080900080L,
+            0x001A002008100600L, 0x0004008004020080L, 0x5181000600040300L, 0x0000044401128A00L,
+            0x8044110480002441L, 0x1023012082044112L, 0x00804080200A0012L, 0x000420310A004A42L,
+            0x0023001004020801L, 0x0882001008040102L, 0x000230088118020CL, 0x0000019025040042L
+    };
+    private static final long[] BISHOP_MAGICS = {
+            0x1010220204082A00L, 0x80E0020202002804L, 0x2008480104200020L, 0x000220920280002DL,
+            0x32040421000B0284L, 0x1002080404000400L, 0x0004160892080040L, 0x2203024206204201L,
+            0x0002404264010200L, 0x1120908408428124L, 0xB100424403002280L, 0x240008060440C288L,
+            0x2040040420490400L, 0x0100620210040022L, 0x0400084104202028L, 0x0010050080908820L,
+            0x0C90A04490824802L, 0x000200A008210130L, 0x0C08001000204010L, 0x0008000186014480L,
+            0x0601044820080021L, 0x0002000101013100L, 0x1400A08108080204L, 0x0250401104485410L,
+            0x4820240810142843L, 0x0009142A20182200L, 0x0848140048440020L, 0x2020120000400440L,
+            0x0108840200802003L, 0x0009070082009492L, 0x020C0C0038424245L, 0xCA44005808210410L,
+            0x8011212000500404L, 0x2028840510101008L, 0x0004042A00041400L, 0x0624020080980080L,
+            0x1820410040840040L, 0x2201004202050100L, 0x402A088A24040224L, 0x0242061040002400L,
+            0x90020202400821A0L, 0x00C9009004E01002L, 0x58C2060202023100L, 0x0000012214040800L,
+            0x0210846810100200L, 0x0004208081010200L, 0x01A4108404442100L, 0x8054082C80280106L,
+            0x0004144904104208L, 0x00324C0A11104000L, 0x1000020231040100L, 0x2080001042020004L,
+            0x0544021020288104L, 0x1103501408083020L, 0x4010451004960002L, 0x003010091C44902CL,
+            0x0102402884202000L, 0x0480804C00841086L, 0x04602C8602210400L, 0x0000004000420200L,
+            0x0040000020442C18L, 0x4483804089094100L, 0x80000B0248020400L, 0x0045010808008680L
+    };
+    private static final int[] ROOK_SHIFTS = new int[64], BISHOP_SHIFTS = new int[64];
+    private static final long[][] ROOK_TABLE = new long[64][], BISHOP_TABLE = new long[64][];
+
+    static {
+        int[][] knightOffsets = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+
+        for (int square = 0; square < 64; square++) {
+            int file = square & 7, rank = square >>> 3;
+
+            for (int[] offset : knightOffsets)
+                KNIGHT[square] |= bit(file + offset[0], rank + offset[1]);
+
+            for (int df = -1; df <= 1; df++)
+                for (int dr = -1; dr <= 1; dr++)
+                    if (df != 0 || dr != 0)
+                        KING[square] |= bit(file + df, rank + dr);
+
+            for (Color color : Color.values()) {
+                int r = rank + color.getPawnDirection();
+                PAWN[color.ordinal()][square] = bit(file - 1, r) | bit(file + 1, r);
+            }
+
+            for (int direction = 0; direction < 8; direction++) {
+                int f = file + DIRECTIONS[direction][0], r = rank + DIRECTIONS[direction][1];
+                long between = 0;
+                while (Board.inBounds(f) && Board.inBounds(r)) {
+                    int target = r << 3 | f;
+                    RAYS[direction][square] |= 1L << target;
+                    BETWEEN[square][target] = between;
+                    between |= 1L << target;
+                    f += DIRECTIONS[direction][0];
+                    r += DIRECTIONS[direction][1];
+                }
+            }
+        }
+
+        for (int square = 0; square < 64; square++) {
+            for (int direction = 0; direction < 8; direction++) {
+                long line = RAYS[direction][square] | RAYS[(direction + 4) & 7][square] | 1L << square;
+                for (long targets = RAYS[direction][square]; targets != 0; targets &= targets - 1)
+                    LINE[square][Long.numberOfTrailingZeros(targets)] = line;
+            }
+        }
+
+        for (int square = 0; square < 64; square++) {
+            long rank = 0xFFL << (square & ~7), file = 0x0101010101010101L << (square & 7);
+            long edges = (0x00000000000000FFL | 0xFF00000000000000L) & ~rank
+                    | (0x0101010101010101L | 0x8080808080808080L) & ~file;
+
+            ROOK_MASKS[square] = slidingRook(square, 0L) & ~edges;
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+            ROOK_TABLE[square] = new long[1 << Long.bitCount(ROOK_MASKS[square])];
+            fillTable(square, ROOK_MASKS[square], ROOK_MAGICS[square], ROOK_SHIFTS[square], ROOK_TABLE[square], false);
+
+            BISHOP_MASKS[square] = slidingBishop(square, 0L) & ~edges;
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+            BISHOP_TABLE[square] = new long[1 << Long.bitCount(BISHOP_MASKS[square])];
+            fillTable(square, BISHOP_MASKS[square], BISHOP_MAGICS[square], BISHOP_SHIFTS[square], BISHOP_TABLE[square], true);
+        }
+    }
+
+    /**
+     * Fills the attack table of a square for every blocker subset of its mask, at the index its magic number maps it to.
+     */
+    private static void fillTable(int square, long mask, long magic, int shift, long[] table, boolean bishop) {
+        long subset = 0;
+        do {
+            table[(int) ((subset * magic) >>> shift)] = bishop ? slidingBishop(square, subset) : slidingRook(square, subset);
+            subset = (subset - mask) & mask;
+        } while (subset != 0);
+    }
+
+    private static long bit(int file, int rank) {
+        return Board.inBounds(file) && Board.inBounds(rank) ? 1L << (rank << 3 | file) : 0;
+    }
+
+    /**
+     * Gets the squares attacked by a knight.
+     *
+     * @param square square index
+     * @return attacked squares
+     */
+    public static long knight(int square) {
+        return KNIGHT[square];
+    }
+
+    /**
+     * Gets the squares attacked by a king.
+     *
+     * @param square square index
+     * @return attacked squares
+     */
+    public static long king(int square) {
+        return KING[square];
+    }
+
+    /**
+     * Gets the squares attacked by a pawn.
+     *
+     * @param color  pawn color
+     * @param square square index
+     * @return attacked squares
+     */
+    public static long pawn(@NotNull Color color, int square) {
+        return PAWN[color.ordinal()][square];
+    }
+
+    private static long ray(int direction, int square, long occupied) {
+        long ray = RAYS[direction][square];
+        long blockers = ray & occupied;
+        if (blockers != 0) {
+            int blocker = direction < SOUTH
+                    ? Long.numberOfTrailingZeros(blockers)
+                    : 63 - Long.numberOfLeadingZeros(blockers);
+            ray ^= RAYS[direction][blocker];
+        }
+        return ray;
+    }
+
+    private static long slidingRook(int square, long occupied) {
+        return ray(NORTH, square, occupied) | ray(EAST, square, occupied)
+                | ray(SOUTH, square, occupied) | ray(WEST, square, occupied);
+    }
+
+    private static long slidingBishop(int square, long occupied) {
+        return ray(NORTH_EAST, square, occupied) | ray(NORTH_WEST, square, occupied)
+                | ray(SOUTH_EAST, square, occupied) | ray(SOUTH_WEST, square, occupied);
+    }
+
+    /**
+     * Gets the squares attacked by a rook.
+     *
+     * @param square   square index
+     * @param occupied occupied squares
+     * @return attacked squares, including the first blocker in each direction
+     */
+    public static long rook(int square, long occupied) {
+        return ROOK_TABLE[square][(int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    /**
+     * Gets the squares attacked by a bishop.
+     *
+     * @param square   square index
+     * @param occupied occupied squares
+     * @return attacked squares, including the first blocker in each direction
+     */
+    public static long bishop(int square, long occupied) {
+        return BISHOP_TABLE[square][(int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    /**
+     * Gets the squares attacked by a queen.
+     *
+     * @param square   square index
+     * @param occupied occupied squares
+     * @return attacked squares, including the first blocker in each direction
+     */
+    public static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    /**
+     * Gets the squares strictly between two squares on the same file, rank or diagonal.
+     *
+     * @param from first square index
+     * @param to   second square index
+     * @return squares between, or {@code 0} if the squares are not aligned or adjacent
+     */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+
+    /**
+     * Gets the full line through two squares on the same file, rank or diagonal.
+     *
+     * @param from first square index
+     * @param to   second square index
+     * @return squares on the line, including both ends, or {@code 0} if the squares are not aligned
+     */
+    public static long line(int from, int to) {
+        return LINE[from][to];
+    }
+
+}
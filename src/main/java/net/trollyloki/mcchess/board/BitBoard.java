@@ -0,0 +1,463 @@
+package net.trollyloki.mcchess.board;
+
+import net.trollyloki.mcchess.Color;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * An in-memory board that stores its position as one bitmask per piece.
+ * <br>
+ * Square indices run from a1 ({@code 0}) to h8 ({@code 63}), rank by rank.
+ * Piece indices are {@code color.ordinal() * 6 + type.ordinal()}.
+ * The squares attacked from each square are updated incrementally: a change only marks its square, and the next time
+ * attacks are needed just the marked squares and the sliding pieces whose rays reach them are recomputed.
+ * These are combined into one attack map per color, which checks are detected with, only when one is asked for.
+ */
+public class BitBoard implements Board {
+
+    private static final Optional<Piece>[] PIECES = createOptionals();
+    private static final Piece.Type[] TYPES = Piece.Type.values();
+
+    private @NotNull String site = "?";
+
+    private final long[] pieces = new long[12];
+    private final long[] colors = new long[2];
+    private long occupied;
+    private long key;
+    private final byte[] squares = new byte[64]; // piece index plus one, so that empty squares are zero
+
+    private final long[] attacksFrom = new long[64];
+    private long changedSquares = -1L; // squares changed since attacksFrom was last updated
+    private final long[] attacks = new long[2];
+    private int staleAttacks = 3; // bit per color whose attack map must be rebuilt
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Optional<Piece>[] createOptionals() {
+        Optional<Piece>[] optionals = new Optional[12];
+        for (int piece = 0; piece < optionals.length; piece++)
+            optionals[piece] = Optional.of(Piece.of(piece));
+        return optionals;
+    }
+
+    /**
+     * Creates a new empty board.
+     */
+    public BitBoard() {
+    }
+
+    /**
+     * Creates a new board with a position loaded from FEN.
+     *
+     * @param position FEN piece placement data
+     */
+    public BitBoard(@NotNull String position) {
+        loadFromFEN(position);
+    }
+
+    /**
+     * Creates a new board with the same position as another board.
+     *
+     * @param board board to copy
+     */
+    protected BitBoard(@NotNull BitBoard board) {
+        this.site = board.getSite();
+        copyFrom(board);
+    }
+
+    /**
+     * Creates a new board with the same position and site as another board.
+     *
+     * @param board board to copy
+     * @return copy
+     */
+    public static @NotNull BitBoard copyOf(@NotNull Board board) {
+        if (board instanceof BitBoard bitBoard)
+            return new BitBoard(bitBoard);
+
+        BitBoard copy = new BitBoard();
+        copy.site = board.getSite();
+        for (int square = 0; square < 64; square++)
+            copy.setPieceAt(Square.of(square), board.getPieceAt(Square.of(square)).orElse(null));
+        return copy;
+    }
+
+    /**
+     * Copies the position of another board onto this board, without notifying {@link #changed()}.
+     *
+     * @param board board to copy
+     */
+    public void copyFrom(@NotNull BitBoard board) {
+        System.arraycopy(board.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(board.colors, 0, colors, 0, colors.length);
+        occupied = board.occupied;
+        key = board.key;
+        System.arraycopy(board.squares, 0, squares, 0, squares.length);
+        System.arraycopy(board.attacksFrom, 0, attacksFrom, 0, attacksFrom.length);
+        changedSquares = board.changedSquares;
+        System.arraycopy(board.attacks, 0, attacks, 0, attacks.length);
+        staleAttacks = board.staleAttacks;
+    }
+
+    /**
+     * Called whenever the position on this board changes.
+     */
+    protected void changed() {
+    }
+
+    /**
+     * Gets the index of a piece.
+     *
+     * @param color piece color
+     * @param type  piece type
+     * @return piece index
+     */
+    public static int index(@NotNull Color color, @NotNull Piece.Type type) {
+        return color.ordinal() * 6 + type.ordinal();
+    }
+
+    @Override
+    public @NotNull String getSite() {
+        return site;
+    }
+
+    @Override
+    public void setSite(@NotNull String site) {
+        this.site = site;
+    }
+
+    /**
+     * Gets the squares occupied by a piece.
+     *
+     * @param color piece color
+     * @param type  piece type
+     * @return bitmask of squares
+     */
+    public long getPieces(@NotNull Color color, @NotNull Piece.Type type) {
+        return pieces[index(color, type)];
+    }
+
+    /**
+     * Gets the squares occupied by a piece.
+     *
+     * @param piece piece index
+     * @return bitmask of squares
+     */
+    public long getPieces(int piece) {
+        return pieces[piece];
+    }
+
+    /**
+     * Gets the squares occupied by pieces of a color.
+     *
+     * @param color piece color
+     * @return bitmask of squares
+     */
+    public long getOccupied(@NotNull Color color) {
+        return colors[color.ordinal()];
+    }
+
+    /**
+     * Gets the squares occupied by any piece.
+     *
+     * @return bitmask of squares
+     */
+    public long getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * Gets the Zobrist key of the pieces on this board.
+     * <br>
+     * The key is updated incrementally as pieces are added and removed.
+     *
+     * @return key
+     * @see Zobrist
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the piece at a square index.
+     *
+     * @param square square index
+     * @return piece index, or {@code -1} if the square is empty
+     */
+    public int getPiece(int square) {
+        return squares[square] - 1;
+    }
+
+    /**
+     * Sets the piece at a square index.
+     *
+     * @param square square index
+     * @param piece  piece index, or {@code -1} to clear the square
+     */
+    public void setPiece(int square, int piece) {
+        long bit = 1L << square;
+        int existing = getPiece(square);
+        if (existing >= 0) {
+            pieces[existing] &= ~bit;
+            colors[existing / 6] &= ~bit;
+            occupied &= ~bit;
+            key ^= Zobrist.piece(existing, square);
+        }
+        if (piece >= 0) {
+            pieces[piece] |= bit;
+            colors[piece / 6] |= bit;
+            occupied |= bit;
+            key ^= Zobrist.piece(piece, square);
+        }
+        squares[square] = (byte) (piece + 1);
+        changedSquares |= bit;
+        staleAttacks = 3;
+        changed();
+    }
+
+    /**
+     * Updates the attacks from the squares that have changed, and from the sliding pieces whose rays reach them.
+     * <br>
+     * A slider is affected by a change only if there is nothing between it and the nearest changed square on its ray,
+     * so looking along the rays of each changed square in the current position finds every affected slider.
+     */
+    private void updateAttacksFrom() {
+        long update = changedSquares;
+        if (update == 0)
+            return;
+
+        if (update != -1L) {
+            long diagonal = 0, straight = 0;
+            for (int offset = 0; offset < 12; offset += 6) {
+                long queens = pieces[offset + Piece.Type.QUEEN.ordinal()];
+                diagonal |= pieces[offset + Piece.Type.BISHOP.ordinal()] | queens;
+                straight |= pieces[offset + Piece.Type.ROOK.ordinal()] | queens;
+            }
+            for (long bits = update; bits != 0; bits &= bits - 1) {
+                int square = Long.numberOfTrailingZeros(bits);
+                update |= Attacks.bishop(square, occupied) & diagonal | Attacks.rook(square, occupied) & straight;
+            }
+        }
+
+        for (long bits = update; bits != 0; bits &= bits - 1) {
+            int square = Long.numberOfTrailingZeros(bits);
+            int piece = getPiece(square);
+            attacksFrom[square] = piece >= 0 ? attacksOf(piece, square) : 0;
+        }
+        changedSquares = 0;
+    }
+
+    private long attacksOf(int piece, int square) {
+        return switch (TYPES[piece % 6]) {
+            case KING -> Attacks.king(square);
+            case QUEEN -> Attacks.queen(square, occupied);
+            case ROOK -> Attacks.rook(square, occupied);
+            case BISHOP -> Attacks.bishop(square, occupied);
+            case KNIGHT -> Attacks.knight(square);
+            case PAWN -> Attacks.pawn(piece < 6 ? Color.WHITE : Color.BLACK, square);
+        };
+    }
+
+    /**
+     * Removes all pieces from this board.
+     */
+    public void clear() {
+        for (int i = 0; i < pieces.length; i++)
+            pieces[i] = 0;
+        colors[0] = colors[1] = occupied = key = 0;
+        for (int i = 0; i < squares.length; i++)
+            squares[i] = 0;
+        changedSquares = -1L;
+        staleAttacks = 3;
+        changed();
+    }
+
+    /**
+     * Replaces the position on this board in one pass, notifying {@link #changed()} once.
+     *
+     * @param squares piece index plus one for each square index, or {@code 0} for an empty square
+     */
+    public void loadSquares(byte @NotNull [] squares) {
+        for (int i = 0; i < pieces.length; i++)
+            pieces[i] = 0;
+        colors[0] = colors[1] = occupied = key = 0;
+        for (int square = 0; square < 64; square++) {
+            int piece = squares[square] - 1;
+            this.squares[square] = squares[square];
+            if (piece >= 0) {
+                long bit = 1L << square;
+                pieces[piece] |= bit;
+                colors[piece / 6] |= bit;
+                key ^= Zobrist.piece(piece, square);
+            }
+        }
+        occupied = colors[0] | colors[1];
+        changedSquares = -1L;
+        staleAttacks = 3;
+        changed();
+    }
+
+    /**
+     * Moves the piece at a square index, replacing any piece at the destination.
+     *
+     * @param from square index to move from
+     * @param to   square index to move to
+     * @return {@code true} if a piece was moved, otherwise {@code false}
+     */
+    public boolean movePiece(int from, int to) {
+        int piece = getPiece(from);
+        if (piece < 0)
+            return false;
+
+        setPiece(from, -1);
+        setPiece(to, piece);
+        return true;
+    }
+
+    @Override
+    public @NotNull Optional<Piece> getPieceAt(@NotNull Square square) {
+        int piece = getPiece(square.getIndex());
+        return piece < 0 ? Optional.empty() : PIECES[piece];
+    }
+
+    @Override
+    public boolean isPieceAt(@NotNull Square square, @NotNull Piece piece) {
+        return (pieces[piece.getIndex()] >>> square.getIndex() & 1) != 0;
+    }
+
+    @Override
+    public boolean setPieceAt(@NotNull Square square, @Nullable Piece piece) {
+        setPiece(square.getIndex(), piece == null ? -1 : piece.getIndex());
+        return true;
+    }
+
+    @Override
+    public boolean movePiece(@NotNull Square from, @NotNull Square to) {
+        return movePiece(from.getIndex(), to.getIndex());
+    }
+
+    /**
+     * Gets the pieces of a color that attack a square index.
+     *
+     * @param square square index
+     * @param color  attacking color
+     * @return bitmask of attacking pieces
+     */
+    public long getAttackers(int square, @NotNull Color color) {
+        return getAttackers(square, color, occupied);
+    }
+
+    /**
+     * Gets the pieces of a color that would attack a square index if a different set of squares were occupied.
+     *
+     * @param square   square index
+     * @param color    attacking color
+     * @param occupied occupied squares, for sliding piece attacks
+     * @return bitmask of attacking pieces
+     */
+    public long getAttackers(int square, @NotNull Color color, long occupied) {
+        int offset = color.ordinal() * 6;
+        long queens = pieces[offset + Piece.Type.QUEEN.ordinal()];
+        return Attacks.pawn(color.opposite(), square) & pieces[offset + Piece.Type.PAWN.ordinal()]
+                | Attacks.knight(square) & pieces[offset + Piece.Type.KNIGHT.ordinal()]
+                | Attacks.king(square) & pieces[offset + Piece.Type.KING.ordinal()]
+                | Attacks.bishop(square, occupied) & (pieces[offset + Piece.Type.BISHOP.ordinal()] | queens)
+                | Attacks.rook(square, occupied) & (pieces[offset + Piece.Type.ROOK.ordinal()] | queens);
+    }
+
+    /**
+     * Checks if a square is attacked by any piece of a color.
+     *
+     * @param square square
+     * @param color  attacking color
+     * @return {@code true} if the square is attacked, otherwise {@code false}
+     */
+    public boolean isAttacked(@NotNull Square square, @NotNull Color color) {
+        return (getAttacks(color) >>> square.getIndex() & 1) != 0;
+    }
+
+    /**
+     * Gets the squares attacked by the piece at a square index.
+     *
+     * @param square square index
+     * @return attacked squares, or {@code 0} if the square is empty
+     */
+    public long getAttacksFrom(int square) {
+        updateAttacksFrom();
+        return attacksFrom[square];
+    }
+
+    /**
+     * Gets the squares attacked by any piece of a color.
+     *
+     * @param color attacking color
+     * @return attacked squares
+     */
+    public long getAttacks(@NotNull Color color) {
+        int side = color.ordinal();
+        if ((staleAttacks >>> side & 1) != 0) {
+            updateAttacksFrom();
+            long map = 0;
+            for (long squares = colors[side]; squares != 0; squares &= squares - 1)
+                map |= attacksFrom[Long.numberOfTrailingZeros(squares)];
+            attacks[side] = map;
+            staleAttacks &= ~(1 << side);
+        }
+        return attacks[side];
+    }
+
+    /**
+     * Checks if the king of a color is attacked.
+     *
+     * @param color king color
+     * @return {@code true} if the king is in check, otherwise {@code false}
+     */
+    public boolean isInCheck(@NotNull Color color) {
+        return (getAttacks(color.opposite()) & pieces[index(color, Piece.Type.KING)]) != 0;
+    }
+
+    @Override
+    public boolean isFileOpen(int file, int fromRank, int toRank) {
+        Board.checkBounds(file, fromRank);
+        Board.checkBounds(file, toRank);
+        return (Attacks.between(fromRank << 3 | file, toRank << 3 | file) & occupied) == 0;
+    }
+
+    @Override
+    public boolean isRankOpen(int rank, int fromFile, int toFile) {
+        Board.checkBounds(fromFile, rank);
+        Board.checkBounds(toFile, rank);
+        return (Attacks.between(rank << 3 | fromFile, rank << 3 | toFile) & occupied) == 0;
+    }
+
+    @Override
+    public boolean isDiagonalOpen(int fromFile, int fromRank, int toFile, int toRank) {
+        Board.checkBounds(fromFile, fromRank);
+        Board.checkBounds(toFile, toRank);
+        return (Attacks.between(fromRank << 3 | fromFile, toRank << 3 | toFile) & occupied) == 0;
+    }
+
+    @Override
+    public @NotNull String toFEN() {
+        byte[] buffer = new byte[71];
+        return new String(buffer, 0, FENCodec.formatPlacement(this, buffer, 0), StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void loadFromFEN(@NotNull String position) {
+        byte[] squares = new byte[64];
+        if (FENCodec.parsePlacement(position, 0, position.length(), squares) != position.length())
+            throw new IllegalArgumentException("Invalid FEN piece placement: " + position);
+        loadSquares(squares);
+    }
+
+    @Override
+    public String toString() {
+        return "BitBoard{" +
+                "position=" + toFEN() +
+                '}';
+    }
+
+}
@@ -92,31 +92,68 @@ public interface Board {
      */
     boolean setPieceAt(@NotNull Square square, @Nullable Piece piece);
 
+    /**
+     * Removes the piece at a square on this board because it is being moved elsewhere.
+     * <br>
+     * Unlike {@link #setPieceAt(Square, Piece)}, the removed piece is not treated as captured.
+     *
+     * @param square square
+     * @return {@code true} if the square was cleared, otherwise {@code false}
+     */
+    default boolean liftPieceAt(@NotNull Square square) {
+        return setPieceAt(square, null);
+    }
+
+    /**
+     * Checks if the squares strictly between two ranks on a file are empty.
+     *
+     * @param file     file index
+     * @param fromRank first rank index
+     * @param toRank   second rank index
+     * @return {@code true} if there are no pieces in between, otherwise {@code false}
+     */
     default boolean isFileOpen(int file, int fromRank, int toRank) {
-        int delta = toRank > fromRank ? 1 : -1;
-        for (int r = fromRank; r < toRank; r += delta) {
-            if (getPieceAt(new Square(file, r)).isPresent())
+        int delta = Integer.signum(toRank - fromRank);
+        for (int r = fromRank + delta; r != toRank; r += delta) {
+            if (getPieceAt(Square.of(file, r)).isPresent())
                 return false;
         }
         return true;
     }
 
+    /**
+     * Checks if the squares strictly between two files on a rank are empty.
+     *
+     * @param rank     rank index
+     * @param fromFile first file index
+     * @param toFile   second file index
+     * @return {@code true} if there are no pieces in between, otherwise {@code false}
+     */
     default boolean isRankOpen(int rank, int fromFile, int toFile) {
-        int delta = toFile > fromFile ? 1 : -1;
-        for (int f = fromFile; f < toFile; f += delta) {
-            if (getPieceAt(new Square(f, rank)).isPresent())
+        int delta = Integer.signum(toFile - fromFile);
+        for (int f = fromFile + delta; f != toFile; f += delta) {
+            if (getPieceAt(Square.of(f, rank)).isPresent())
                 return false;
         }
         return true;
     }
 
+    /**
+     * Checks if the squares strictly between two squares on a diagonal are empty.
+     *
+     * @param fromFile first file index
+     * @param fromRank first rank index
+     * @param toFile   second file index
+     * @param toRank   second rank index
+     * @return {@code true} if there are no pieces in between, otherwise {@code false}
+     */
     default boolean isDiagonalOpen(int fromFile, int fromRank, int toFile, int toRank) {
-        int fileDelta = toFile > fromFile ? 1 : -1;
-        int rankDelta = toRank > fromRank ? 1 : -1;
-        int f = fromFile;
-        int r = fromRank;
-        while (f < toFile || r < toRank) {
-            if (getPieceAt(new Square(f, r)).isPresent())
+        int fileDelta = Integer.signum(toFile - fromFile);
+        int rankDelta = Integer.signum(toRank - fromRank);
+        int f = fromFile + fileDelta;
+        int r = fromRank + rankDelta;
+        while (f != toFile && r != toRank) {
+            if (getPieceAt(Square.of(f, r)).isPresent())
                 return false;
             f += fileDelta;
             r += rankDelta;
@@ -155,7 +192,7 @@ public interface Board {
             int emptySquares = 0;
             for (int file = 0; file < 8; file++) {
 
-                Optional<Piece> piece = getPieceAt(new Square(file, rank));
+                Optional<Piece> piece = getPieceAt(Square.of(file, rank));
                 if (piece.isEmpty()) {
                     emptySquares++;
                     continue;
@@ -182,31 +219,15 @@ public interface Board {
      * Loads a FEN position onto this board.
      *
      * @param position FEN piece placement data
+     * @throws IllegalArgumentException if the placement data is not valid
      * @see <a href="https://en.wikipedia.org/wiki/Forsyth%E2%80%93Edwards_Notation">Forsyth–Edwards Notation</a>
      */
     default void loadFromFEN(@NotNull String position) {
-        int rank = 7;
-        for (String rankString : position.split("/")) {
-
-            int file = 0;
-            for (char letter : rankString.toCharArray()) {
-
-                if (Character.isDigit(letter)) {
-                    int emptySquares = Integer.parseInt(String.valueOf(letter));
-
-                    for (int i = 0; i < emptySquares; i++) {
-                        setPieceAt(new Square(file, rank), null);
-                        file++;
-                    }
-
-                    continue;
-                }
-
-                setPieceAt(new Square(file, rank), Piece.fromLetter(letter));
-                file++;
-            }
-            rank--;
-        }
+        byte[] squares = new byte[64];
+        if (FENCodec.parsePlacement(position, 0, position.length(), squares) != position.length())
+            throw new IllegalArgumentException("Invalid FEN piece placement: " + position);
+        for (int square = 0; square < 64; square++)
+            setPieceAt(Square.of(square), squares[square] != 0 ? Piece.of(squares[square] - 1) : null);
     }
 
 }
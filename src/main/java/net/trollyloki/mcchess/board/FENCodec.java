@@ -0,0 +1,493 @@
+package net.trollyloki.mcchess.board;
+
+import net.trollyloki.mcchess.Color;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass FEN and EPD parser and formatter that works on {@link CharSequence}s and byte arrays without allocating.
+ * <br>
+ * Characters are decoded through lookup tables, and records are validated strictly: there must be exactly eight ranks
+ * of eight squares, fields separated by single spaces, castling rights in {@code KQkq} order with the king and rook
+ * still on their home squares, an en passant square on the rank behind a pawn of the side that just moved, and no
+ * trailing text. The position must also be one that moves can be generated for: exactly one king per side, no pawns on
+ * the first or last rank, and the side that is not to move not in check. Nothing is changed when a record is invalid.
+ * <br>
+ * A codec keeps the fields of the last record it parsed, so one instance can load any number of positions.
+ * Castling rights use the same bits as {@code Game.castlingRight}. A codec is not thread safe.
+ *
+ * @see <a href="https://www.chessprogramming.org/Forsyth-Edwards_Notation">Forsyth-Edwards Notation</a>
+ * @see <a href="https://www.chessprogramming.org/Extended_Position_Description">Extended Position Description</a>
+ */
+public final class FENCodec {
+
+    /**
+     * The most bytes a formatted FEN record can take.
+     */
+    public static final int MAX_LENGTH = 71 + 1 + 1 + 1 + 4 + 1 + 2 + 1 + 10 + 1 + 10;
+
+    private static final byte[] PIECE_CODES = new byte[128]; // piece index plus one by letter, or zero
+    private static final byte[] LETTERS = new byte[12];
+    private static final byte[] CASTLING_CODES = new byte[128]; // castling right by letter, or zero
+    private static final byte[] CASTLING_LETTERS = {'K', 'Q', 'k', 'q'};
+    private static final int[] CASTLING_ROOKS = {7, 0, 63, 56}; // home square of the rook for each castling right
+
+    private static final int KING = Piece.Type.KING.ordinal(), QUEEN = Piece.Type.QUEEN.ordinal(),
+            ROOK = Piece.Type.ROOK.ordinal(), BISHOP = Piece.Type.BISHOP.ordinal(),
+            KNIGHT = Piece.Type.KNIGHT.ordinal(), PAWN = Piece.Type.PAWN.ordinal();
+
+    static {
+        for (int piece = 0; piece < LETTERS.length; piece++) {
+            LETTERS[piece] = (byte) Piece.of(piece).getLetter();
+            PIECE_CODES[LETTERS[piece]] = (byte) (piece + 1);
+        }
+        for (int i = 0; i < CASTLING_LETTERS.length; i++)
+            CASTLING_CODES[CASTLING_LETTERS[i]] = (byte) (1 << i);
+    }
+
+    private final byte[] squares = new byte[64];
+    private final long[] pieces = new long[12]; // bitboards by piece index of the placement being validated
+    private final @NotNull ByteSequence bytes = new ByteSequence();
+
+    private @NotNull Color activeColor = Color.WHITE;
+    private int castlingRights, enPassantSquare = -1, halfMoves, moveNumber = 1;
+
+    /**
+     * Parses a FEN record onto a board.
+     *
+     * @param fen   FEN record
+     * @param board board to load the position onto
+     * @throws IllegalArgumentException if the record is not valid FEN
+     */
+    public void parse(@NotNull CharSequence fen, @NotNull BitBoard board) {
+        parse(fen, 0, fen.length(), board);
+    }
+
+    /**
+     * Parses a FEN record onto a board.
+     *
+     * @param text  text containing the record
+     * @param start index of the first character of the record
+     * @param end   index after the last character of the record
+     * @param board board to load the position onto
+     * @throws IllegalArgumentException if the record is not valid FEN
+     */
+    public void parse(@NotNull CharSequence text, int start, int end, @NotNull BitBoard board) {
+        int index = parseFields(text, start, end);
+        index = expect(text, index, end, ' ');
+        int halfMoves = 0;
+        int digits = index;
+        for (; index < end && isDigit(text.charAt(index)); index++)
+            halfMoves = checkedDigit(text, digits, index, halfMoves);
+        checkNumber(text, digits, index);
+
+        index = expect(text, index, end, ' ');
+        int moveNumber = 0;
+        digits = index;
+        for (; index < end && isDigit(text.charAt(index)); index++)
+            moveNumber = checkedDigit(text, digits, index, moveNumber);
+        checkNumber(text, digits, index);
+        if (moveNumber == 0)
+            throw invalid(text, digits, "move number must be at least 1");
+        if (index != end)
+            throw invalid(text, index, "unexpected text");
+
+        this.halfMoves = halfMoves;
+        this.moveNumber = moveNumber;
+        board.loadSquares(squares);
+    }
+
+    /**
+     * Parses a FEN record encoded in ASCII onto a board.
+     *
+     * @param bytes  bytes containing the record
+     * @param offset offset of the first byte of the record
+     * @param length length of the record
+     * @param board  board to load the position onto
+     * @throws IllegalArgumentException if the record is not valid FEN
+     */
+    public void parse(byte @NotNull [] bytes, int offset, int length, @NotNull BitBoard board) {
+        parse(this.bytes.of(bytes, offset, length), 0, length, board);
+    }
+
+    /**
+     * Parses the four position fields of an EPD record onto a board.
+     * <br>
+     * The half move clock is set to {@code 0} and the move number to {@code 1}, and any operations are left to the caller.
+     *
+     * @param text  text containing the record
+     * @param start index of the first character of the record
+     * @param end   index after the last character of the record
+     * @param board board to load the position onto
+     * @return index after the position fields, which is either {@code end} or a space before the operations
+     * @throws IllegalArgumentException if the position fields are not valid
+     */
+    public int parseEPD(@NotNull CharSequence text, int start, int end, @NotNull BitBoard board) {
+        int index = parseFields(text, start, end);
+        if (index != end && text.charAt(index) != ' ')
+            throw invalid(text, index, "expected ' '");
+
+        this.halfMoves = 0;
+        this.moveNumber = 1;
+        board.loadSquares(squares);
+        return index;
+    }
+
+    /**
+     * Parses the four position fields of an EPD record encoded in ASCII onto a board.
+     *
+     * @param bytes  bytes containing the record
+     * @param offset offset of the first byte of the record
+     * @param length length of the record
+     * @param board  board to load the position onto
+     * @return offset after the position fields
+     * @throws IllegalArgumentException if the position fields are not valid
+     * @see #parseEPD(CharSequence, int, int, BitBoard)
+     */
+    public int parseEPD(byte @NotNull [] bytes, int offset, int length, @NotNull BitBoard board) {
+        return offset + parseEPD(this.bytes.of(bytes, offset, length), 0, length, board);
+    }
+
+    /**
+     * Parses piece placement data into a mailbox of piece indices plus one, without loading it onto a board.
+     *
+     * @param text    text containing the placement data
+     * @param start   index of the first character
+     * @param end     index after the last character
+     * @param squares mailbox to fill, with {@code 0} for empty squares
+     * @return index after the placement data
+     * @throws IllegalArgumentException if the placement data is not valid
+     */
+    public static int parsePlacement(@NotNull CharSequence text, int start, int end, byte @NotNull [] squares) {
+        int index = start, rank = 7, file = 0;
+        boolean digit = false;
+        while (true) {
+            char letter = index < end ? text.charAt(index) : ' ';
+
+            if (letter == '/' || letter == ' ') {
+                if (file != 8)
+                    throw invalid(text, index, "expected 8 squares on rank " + (rank + 1));
+                if (letter == ' ' || rank == 0)
+                    break;
+                rank--;
+                file = 0;
+                digit = false;
+            } else if (letter >= '1' && letter <= '8') {
+                if (digit)
+                    throw invalid(text, index, "consecutive digits");
+                int empty = letter - '0';
+                if (file + empty > 8)
+                    throw invalid(text, index, "more than 8 squares on rank " + (rank + 1));
+                for (int i = 0; i < empty; i++)
+                    squares[rank << 3 | file++] = 0;
+                digit = true;
+            } else {
+                byte piece = letter < PIECE_CODES.length ? PIECE_CODES[letter] : 0;
+                if (piece == 0)
+                    throw invalid(text, index, "invalid piece letter '" + letter + "'");
+                if (file == 8)
+                    throw invalid(text, index, "more than 8 squares on rank " + (rank + 1));
+                squares[rank << 3 | file++] = piece;
+                digit = false;
+            }
+            index++;
+        }
+        if (rank != 0)
+            throw invalid(text, index, "expected 8 ranks");
+        return index;
+    }
+
+    /**
+     * Parses the placement, active color, castling and en passant fields, leaving the placement in {@link #squares}.
+     */
+    private int parseFields(@NotNull CharSequence text, int start, int end) {
+        int index = parsePlacement(text, start, end, squares);
+        for (int piece = 0; piece < pieces.length; piece++)
+            pieces[piece] = 0;
+        for (int square = 0; square < 64; square++)
+            if (squares[square] != 0)
+                pieces[squares[square] - 1] |= 1L << square;
+        if (Long.bitCount(pieces[KING]) != 1 || Long.bitCount(pieces[6 + KING]) != 1)
+            throw invalid(text, start, "each side must have exactly one king");
+        if (((pieces[PAWN] | pieces[6 + PAWN]) & 0xFF000000000000FFL) != 0)
+            throw invalid(text, start, "pawns cannot be on the first or last rank");
+
+        index = expect(text, index, end, ' ');
+        Color activeColor;
+        char color = index < end ? text.charAt(index) : 0;
+        if (color == 'w')
+            activeColor = Color.WHITE;
+        else if (color == 'b')
+            activeColor = Color.BLACK;
+        else
+            throw invalid(text, index, "expected 'w' or 'b'");
+        index++;
+
+        index = expect(text, index, end, ' ');
+        int castlingRights = 0;
+        if (index < end && text.charAt(index) == '-') {
+            index++;
+        } else {
+            int first = index;
+            for (; index < end && text.charAt(index) != ' '; index++) {
+                char letter = text.charAt(index);
+                int right = letter < CASTLING_CODES.length ? CASTLING_CODES[letter] : 0;
+                if (right == 0)
+                    throw invalid(text, index, "invalid castling letter '" + letter + "'");
+                if (right <= castlingRights)
+                    throw invalid(text, index, "castling rights must be in KQkq order");
+                int side = right < 4 ? 0 : 6, kingSquare = right < 4 ? 4 : 60;
+                if (squares[kingSquare] != side + KING + 1
+                        || squares[CASTLING_ROOKS[Integer.numberOfTrailingZeros(right)]] != side + ROOK + 1)
+                    throw invalid(text, index, "castling right '" + letter + "' without the king and rook on their home squares");
+                castlingRights |= right;
+            }
+            if (index == first)
+                throw invalid(text, index, "expected castling rights");
+        }
+
+        index = expect(text, index, end, ' ');
+        int enPassantSquare = -1;
+        if (index < end && text.charAt(index) == '-') {
+            index++;
+        } else {
+            if (end - index < 2)
+                throw invalid(text, index, "expected en passant square");
+            int file = text.charAt(index) - 'a', rank = text.charAt(index + 1) - '1';
+            if (file < 0 || file >= 8 || rank != (activeColor == Color.WHITE ? 5 : 2))
+                throw invalid(text, index, "invalid en passant square");
+            enPassantSquare = rank << 3 | file;
+            int pawnSquare = enPassantSquare - (activeColor == Color.WHITE ? 8 : -8);
+            int pawn = (activeColor == Color.WHITE ? 6 : 0) + PAWN;
+            if (squares[enPassantSquare] != 0 || squares[pawnSquare] != pawn + 1)
+                throw invalid(text, index, "en passant square is not behind a pawn that just moved two squares");
+            index += 2;
+        }
+
+        if (isAttacked(pieces, Long.numberOfTrailingZeros(pieces[activeColor == Color.WHITE ? 6 + KING : KING]), activeColor))
+            throw invalid(text, start, "the side that is not to move is in check");
+
+        this.activeColor = activeColor;
+        this.castlingRights = castlingRights;
+        this.enPassantSquare = enPassantSquare;
+        return index;
+    }
+
+    /**
+     * Checks if a square is attacked by any piece of a color, in a position given as bitboards by piece index.
+     */
+    private static boolean isAttacked(long @NotNull [] pieces, int square, @NotNull Color color) {
+        int offset = color == Color.WHITE ? 0 : 6;
+        long occupied = 0;
+        for (long bits : pieces)
+            occupied |= bits;
+        long queens = pieces[offset + QUEEN];
+        return (Attacks.pawn(color.opposite(), square) & pieces[offset + PAWN]
+                | Attacks.knight(square) & pieces[offset + KNIGHT]
+                | Attacks.king(square) & pieces[offset + KING]
+                | Attacks.bishop(square, occupied) & (pieces[offset + BISHOP] | queens)
+                | Attacks.rook(square, occupied) & (pieces[offset + ROOK] | queens)) != 0;
+    }
+
+    private static int expect(@NotNull CharSequence text, int index, int end, char expected) {
+        if (index >= end || text.charAt(index) != expected)
+            throw invalid(text, index, "expected '" + expected + "'");
+        return index + 1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int checkedDigit(@NotNull CharSequence text, int first, int index, int value) {
+        if (index - first == 9)
+            throw invalid(text, first, "number is too large");
+        return value * 10 + text.charAt(index) - '0';
+    }
+
+    private static void checkNumber(@NotNull CharSequence text, int first, int index) {
+        if (index == first)
+            throw invalid(text, index, "expected a number");
+        if (text.charAt(first) == '0' && index - first > 1)
+            throw invalid(text, first, "leading zero");
+    }
+
+    private static @NotNull IllegalArgumentException invalid(@NotNull CharSequence text, int index, @NotNull String reason) {
+        return new IllegalArgumentException("Invalid FEN at index " + index + ", " + reason + ": " + text);
+    }
+
+    /**
+     * Gets the active color of the last parsed record.
+     *
+     * @return active color
+     */
+    public @NotNull Color getActiveColor() {
+        return activeColor;
+    }
+
+    /**
+     * Gets the castling rights of the last parsed record.
+     *
+     * @return castling right bits
+     */
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    /**
+     * Gets the en passant target square of the last parsed record.
+     *
+     * @return square index, or {@code -1} if there is none
+     */
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    /**
+     * Gets the half move clock of the last parsed record.
+     *
+     * @return half moves since the last capture or pawn move
+     */
+    public int getHalfMoves() {
+        return halfMoves;
+    }
+
+    /**
+     * Gets the move number of the last parsed record.
+     *
+     * @return full move number
+     */
+    public int getMoveNumber() {
+        return moveNumber;
+    }
+
+    /**
+     * Formats a position as a FEN record in ASCII.
+     *
+     * @param board           board
+     * @param activeColor     active color
+     * @param castlingRights  castling right bits
+     * @param enPassantSquare en passant target square index, or {@code -1}
+     * @param halfMoves       half move clock
+     * @param moveNumber      full move number
+     * @param out             array to write to, with at least {@link #MAX_LENGTH} bytes from the offset
+     * @param offset          offset to start writing at
+     * @return offset after the record
+     */
+    public static int format(@NotNull BitBoard board, @NotNull Color activeColor, int castlingRights, int enPassantSquare,
+                             int halfMoves, int moveNumber, byte @NotNull [] out, int offset) {
+        offset = formatPlacement(board, out, offset);
+
+        out[offset++] = ' ';
+        out[offset++] = (byte) activeColor.getLetter();
+
+        out[offset++] = ' ';
+        if (castlingRights == 0) {
+            out[offset++] = '-';
+        } else {
+            for (int i = 0; i < CASTLING_LETTERS.length; i++)
+                if ((castlingRights & 1 << i) != 0)
+                    out[offset++] = CASTLING_LETTERS[i];
+        }
+
+        out[offset++] = ' ';
+        if (enPassantSquare < 0) {
+            out[offset++] = '-';
+        } else {
+            out[offset++] = (byte) ('a' + (enPassantSquare & 7));
+            out[offset++] = (byte) ('1' + (enPassantSquare >>> 3));
+        }
+
+        out[offset++] = ' ';
+        offset = formatNumber(halfMoves, out, offset);
+        out[offset++] = ' ';
+        return formatNumber(moveNumber, out, offset);
+    }
+
+    /**
+     * Formats the piece placement of a board in ASCII.
+     *
+     * @param board  board
+     * @param out    array to write to, with at least 71 bytes from the offset
+     * @param offset offset to start writing at
+     * @return offset after the placement data
+     */
+    public static int formatPlacement(@NotNull BitBoard board, byte @NotNull [] out, int offset) {
+        for (int rank = 7; rank >= 0; rank--) {
+
+            int emptySquares = 0;
+            for (int file = 0; file < 8; file++) {
+
+                int piece = board.getPiece(rank << 3 | file);
+                if (piece < 0) {
+                    emptySquares++;
+                    continue;
+                }
+
+                if (emptySquares != 0) {
+                    out[offset++] = (byte) ('0' + emptySquares);
+                    emptySquares = 0;
+                }
+                out[offset++] = LETTERS[piece];
+
+            }
+
+            if (emptySquares != 0)
+                out[offset++] = (byte) ('0' + emptySquares);
+
+            if (rank != 0)
+                out[offset++] = '/';
+        }
+        return offset;
+    }
+
+    private static int formatNumber(int value, byte @NotNull [] out, int offset) {
+        if (value < 0)
+            throw new IllegalArgumentException("Number must not be negative");
+        int end = offset + 1;
+        for (int rest = value; rest >= 10; rest /= 10)
+            end++;
+        for (int i = end - 1; i >= offset; i--, value /= 10)
+            out[i] = (byte) ('0' + value % 10);
+        return end;
+    }
+
+    /**
+     * A reusable view of ASCII bytes as characters.
+     */
+    private static final class ByteSequence implements CharSequence {
+
+        private byte[] bytes;
+        private int offset, length;
+
+        private @NotNull ByteSequence of(byte @NotNull [] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        @Override
+        public @NotNull CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+
+    }
+
+}
@@ -1,23 +1,37 @@
 package net.trollyloki.mcchess.board;
 
 import net.trollyloki.mcchess.ChessPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.ItemFrame;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.UUID;
 
 public class PhysicalBoard implements Board {
 
     private final @NotNull Location cornerLocation;
     private final @NotNull BlockFace attachmentFace;
     private final @NotNull Vector rankDirection, fileDirection;
+    private final @NotNull BoundingBox region;
+
+    private final @Nullable ItemFrame @NotNull [] itemFrames = new ItemFrame[64];
+    private boolean itemFramesIndexed = false;
 
     private @NotNull String site = ChessPlugin.getDefaultSite();
 
@@ -41,6 +55,17 @@ public class PhysicalBoard implements Board {
         this.attachmentFace = attachmentFace;
         this.rankDirection = rankDirection.clone().normalize();
         this.fileDirection = fileDirection.clone().normalize();
+        this.region = BoundingBox.of(getLocation(Square.of(0, 0)), getLocation(Square.of(7, 7))).expand(1);
+    }
+
+    /**
+     * Gets the world this board is in.
+     *
+     * @return world
+     */
+    public @NotNull World getWorld() {
+        //noinspection DataFlowIssue
+        return cornerLocation.getWorld();
     }
 
     @Override
@@ -79,9 +104,10 @@ public class PhysicalBoard implements Board {
 
         int file = (int) shifted.dot(rankDirection);
         int rank = (int) shifted.dot(fileDirection);
-        Square square = new Square(file, rank);
+        if (!Board.inBounds(file) || !Board.inBounds(rank))
+            return Optional.empty();
 
-        return Optional.of(square).filter(Board::inBounds);
+        return Optional.of(Square.of(file, rank));
     }
 
     /**
@@ -98,6 +124,41 @@ public class PhysicalBoard implements Board {
         return getSquareAt(block.getLocation());
     }
 
+    /**
+     * Checks if a chunk contains part of this board.
+     *
+     * @param chunk chunk
+     * @return {@code true} if the chunk overlaps this board, otherwise {@code false}
+     */
+    public boolean isInChunk(@NotNull Chunk chunk) {
+        return chunk.getWorld().equals(getWorld())
+                && chunk.getX() >= (int) Math.floor(region.getMinX()) >> 4
+                && chunk.getX() <= (int) Math.floor(region.getMaxX()) >> 4
+                && chunk.getZ() >= (int) Math.floor(region.getMinZ()) >> 4
+                && chunk.getZ() <= (int) Math.floor(region.getMaxZ()) >> 4;
+    }
+
+    /**
+     * Indexes the item frames on this board with a single scan of the board region.
+     */
+    public void indexItemFrames() {
+        Arrays.fill(itemFrames, null);
+        for (Entity entity : getWorld().getNearbyEntities(region, entity -> entity instanceof ItemFrame)) {
+            ItemFrame itemFrame = (ItemFrame) entity;
+            getSquareOf(itemFrame).ifPresent(square -> itemFrames[square.getIndex()] = itemFrame);
+        }
+        itemFramesIndexed = true;
+    }
+
+    /**
+     * Marks the item frame index of this board as stale, so it is rebuilt the next time it is used.
+     * <br>
+     * This should be called when an item frame is placed on this board or one of its chunks is loaded.
+     */
+    public void invalidateItemFrames() {
+        itemFramesIndexed = false;
+    }
+
     /**
      * Gets the item frame for a square on this board.
      *
@@ -105,16 +166,17 @@ public class PhysicalBoard implements Board {
      * @return optional item frame
      */
     public @NotNull Optional<ItemFrame> getItemFrameFor(@NotNull Square square) {
-        Location location = getLocation(square);
-        Block block = location.getBlock();
-        for (ItemFrame itemFrame : location.getNearbyEntitiesByType(ItemFrame.class, 1,
-                frame -> frame.getAttachedFace() == attachmentFace)) {
-
-            if (itemFrame.getLocation().getBlock().getRelative(itemFrame.getAttachedFace()).equals(block))
-                return Optional.of(itemFrame);
+        int index = square.getIndex();
+        if (!itemFramesIndexed)
+            indexItemFrames();
 
+        ItemFrame itemFrame = itemFrames[index];
+        if (itemFrame != null && !itemFrame.isValid()) {
+            // removed or unloaded since the last scan
+            indexItemFrames();
+            itemFrame = itemFrames[index];
         }
-        return Optional.empty();
+        return Optional.ofNullable(itemFrame);
     }
 
     @Override
@@ -138,6 +200,16 @@ public class PhysicalBoard implements Board {
         return true;
     }
 
+    @Override
+    public boolean liftPieceAt(@NotNull Square square) {
+        Optional<ItemFrame> frame = getItemFrameFor(square);
+        if (frame.isEmpty())
+            return false;
+
+        frame.get().setItem(null);
+        return true;
+    }
+
     @Override
     public boolean movePiece(@NotNull Square from, @NotNull Square to) {
         Optional<ItemFrame> fromFrame = getItemFrameFor(from);
@@ -162,6 +234,67 @@ public class PhysicalBoard implements Board {
         return true;
     }
 
+    /**
+     * Writes the definition of this board: its world, corner, attachment face, directions and site.
+     *
+     * @param out destination
+     * @throws IOException if an I/O error occurs
+     * @see #read(DataInput)
+     */
+    public void write(@NotNull DataOutput out) throws IOException {
+        UUID world = getWorld().getUID();
+        out.writeLong(world.getMostSignificantBits());
+        out.writeLong(world.getLeastSignificantBits());
+        out.writeInt(cornerLocation.getBlockX());
+        out.writeInt(cornerLocation.getBlockY());
+        out.writeInt(cornerLocation.getBlockZ());
+        out.writeByte(attachmentFace.ordinal());
+        writeVector(out, rankDirection);
+        writeVector(out, fileDirection);
+        out.writeUTF(site);
+    }
+
+    /**
+     * Reads a board definition written by {@link #write(DataOutput)}.
+     *
+     * @param in source
+     * @return board
+     * @throws IOException if an I/O error occurs, the definition is invalid or its world is not loaded
+     */
+    public static @NotNull PhysicalBoard read(@NotNull DataInput in) throws IOException {
+        UUID worldId = new UUID(in.readLong(), in.readLong());
+        int x = in.readInt(), y = in.readInt(), z = in.readInt();
+        int face = in.readUnsignedByte();
+        if (face >= FACES.length)
+            throw new IOException("Invalid block face " + face);
+        Vector rankDirection = readVector(in), fileDirection = readVector(in);
+        String site = in.readUTF();
+
+        World world = Bukkit.getWorld(worldId);
+        if (world == null)
+            throw new IOException("World " + worldId + " is not loaded");
+
+        try {
+            PhysicalBoard board = new PhysicalBoard(new Location(world, x, y, z), FACES[face], rankDirection, fileDirection);
+            board.setSite(site);
+            return board;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid board: " + e.getMessage(), e);
+        }
+    }
+
+    private static final BlockFace[] FACES = BlockFace.values();
+
+    private static void writeVector(@NotNull DataOutput out, @NotNull Vector vector) throws IOException {
+        out.writeDouble(vector.getX());
+        out.writeDouble(vector.getY());
+        out.writeDouble(vector.getZ());
+    }
+
+    private static @NotNull Vector readVector(@NotNull DataInput in) throws IOException {
+        return new Vector(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
     @Override
     public String toString() {
         return "Board{" +
@@ -3,12 +3,20 @@ package net.trollyloki.mcchess.board;
 import net.trollyloki.mcchess.Color;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-
 public class Piece {
 
+    private static final Piece[] PIECES = new Piece[12];
+    private static final Piece[] LETTER_TABLE = new Piece[128];
+
+    static {
+        for (Color color : Color.values())
+            for (Type type : Type.values()) {
+                Piece piece = new Piece(color, type);
+                PIECES[piece.getIndex()] = piece;
+                LETTER_TABLE[piece.getLetter()] = piece;
+            }
+    }
+
     private final @NotNull Color color;
     private final @NotNull Type type;
 
@@ -18,11 +26,33 @@ public class Piece {
      * @param color color
      * @param type type
      */
-    public Piece(@NotNull Color color, @NotNull Type type) {
+    private Piece(@NotNull Color color, @NotNull Type type) {
         this.color = color;
         this.type = type;
     }
 
+    /**
+     * Gets the piece of a color and type.
+     *
+     * @param color color
+     * @param type  type
+     * @return piece
+     */
+    public static @NotNull Piece of(@NotNull Color color, @NotNull Type type) {
+        return PIECES[color.ordinal() * 6 + type.ordinal()];
+    }
+
+    /**
+     * Gets the piece with an index.
+     *
+     * @param index piece index, {@code color.ordinal() * 6 + type.ordinal()}
+     * @return piece
+     * @throws IndexOutOfBoundsException if the index is not valid
+     */
+    public static @NotNull Piece of(int index) {
+        return PIECES[index];
+    }
+
     /**
      * Gets the color of this piece.
      *
@@ -41,6 +71,15 @@ public class Piece {
         return type;
     }
 
+    /**
+     * Gets the index of this piece.
+     *
+     * @return piece index, {@code color.ordinal() * 6 + type.ordinal()}
+     */
+    public int getIndex() {
+        return color.ordinal() * 6 + type.ordinal();
+    }
+
     /**
      * Gets the letter used to represent this piece in FEN.
      *
@@ -58,31 +97,29 @@ public class Piece {
      * @throws IllegalArgumentException if the letter is not a valid representation of a piece
      */
     public static @NotNull Piece fromLetter(char letter) {
-        Type type = Type.fromLetter(letter);
-        Color color = Character.isLowerCase(letter) ? Color.BLACK : Color.WHITE;
-        return new Piece(color, type);
+        Piece piece = letter < LETTER_TABLE.length ? LETTER_TABLE[letter] : null;
+        if (piece == null)
+            throw new IllegalArgumentException("Invalid FEN letter");
+        return piece;
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Piece piece = (Piece) o;
-        return color == piece.color && type == piece.type;
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(color, type);
+        return getIndex();
     }
 
     public enum Type {
         KING('K'), QUEEN('Q'), ROOK('R'), BISHOP('B'), KNIGHT('N'), PAWN('P');
 
-        private static final Map<Character, Type> LETTER_MAP = new HashMap<>();
+        private static final Type[] LETTER_TABLE = new Type[128];
         static {
             for (Type type : values())
-                LETTER_MAP.put(type.letter, type);
+                LETTER_TABLE[type.letter] = LETTER_TABLE[Character.toLowerCase(type.letter)] = type;
         }
 
         private final char letter;
@@ -96,10 +133,10 @@ public class Piece {
         }
 
         public static @NotNull Type fromLetter(char letter) {
-            letter = Character.toUpperCase(letter);
-            if (!LETTER_MAP.containsKey(letter))
+            Type type = letter < LETTER_TABLE.length ? LETTER_TABLE[letter] : null;
+            if (type == null)
                 throw new IllegalArgumentException("Invalid FEN letter");
-            return LETTER_MAP.get(letter);
+            return type;
         }
 
     }
@@ -0,0 +1,99 @@
+package net.trollyloki.mcchess.board;
+
+import net.trollyloki.mcchess.ChessPlugin;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An in-memory copy of another board that renders its changes to that board once per tick.
+ * <br>
+ * Only squares that differ from what was last rendered are written to the other board,
+ * so any number of changes within a tick collapse into a single render pass.
+ */
+public class ShadowBoard extends BitBoard {
+
+    private final @NotNull Board target;
+    private final @NotNull BitBoard rendered;
+    private boolean flushScheduled = false;
+
+    /**
+     * Creates a new shadow of a board, starting from its current position.
+     *
+     * @param target board to render to
+     */
+    public ShadowBoard(@NotNull Board target) {
+        super(BitBoard.copyOf(target));
+        this.target = target;
+        this.rendered = BitBoard.copyOf(this);
+    }
+
+    /**
+     * Gets the board that this board renders to.
+     *
+     * @return target board
+     */
+    public @NotNull Board getTarget() {
+        return target;
+    }
+
+    @Override
+    public @NotNull String getSite() {
+        return target.getSite();
+    }
+
+    @Override
+    public void setSite(@NotNull String site) {
+        target.setSite(site);
+    }
+
+    @Override
+    protected void changed() {
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), this::flush);
+    }
+
+    /**
+     * Renders all changes since the last flush to the target board.
+     */
+    public void flush() {
+        flushScheduled = false;
+
+        long changed = 0;
+        for (int piece = 0; piece < 12; piece++)
+            changed |= getPieces(piece) ^ rendered.getPieces(piece);
+        if (changed == 0)
+            return;
+
+        int[] gained = new int[12];
+        for (long squares = changed; squares != 0; squares &= squares - 1) {
+            int piece = getPiece(Long.numberOfTrailingZeros(squares));
+            if (piece >= 0)
+                gained[piece]++;
+        }
+
+        // pieces that reappear elsewhere were moved rather than captured
+        long lifted = 0;
+        for (long squares = changed; squares != 0; squares &= squares - 1) {
+            int square = Long.numberOfTrailingZeros(squares);
+            int piece = rendered.getPiece(square);
+            if (piece >= 0 && gained[piece] > 0) {
+                gained[piece]--;
+                target.liftPieceAt(Square.of(square));
+                lifted |= 1L << square;
+            }
+        }
+
+        for (long squares = changed; squares != 0; squares &= squares - 1) {
+            int square = Long.numberOfTrailingZeros(squares);
+            Square s = Square.of(square);
+            if (getPiece(square) >= 0 || (lifted & 1L << square) == 0)
+                target.setPieceAt(s, getPieceAt(s).orElse(null));
+        }
+
+        rendered.copyFrom(this);
+    }
+
+}
@@ -2,21 +2,50 @@ package net.trollyloki.mcchess.board;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Objects;
-
 public class Square {
 
+    private static final Square[] SQUARES = new Square[64];
+
+    static {
+        for (int index = 0; index < SQUARES.length; index++)
+            SQUARES[index] = new Square(index & 7, index >>> 3);
+    }
+
     private final int file, rank;
 
     /**
      * @param file file index
      * @param rank rank index
      */
-    public Square(int file, int rank) {
+    private Square(int file, int rank) {
         this.file = file;
         this.rank = rank;
     }
 
+    /**
+     * Gets the square at a file and rank.
+     *
+     * @param file file index
+     * @param rank rank index
+     * @return square
+     * @throws IndexOutOfBoundsException if the file or rank index is not on the board
+     */
+    public static @NotNull Square of(int file, int rank) {
+        Board.checkBounds(file, rank);
+        return SQUARES[rank << 3 | file];
+    }
+
+    /**
+     * Gets the square with an index.
+     *
+     * @param index square index, from a1 ({@code 0}) to h8 ({@code 63}) rank by rank
+     * @return square
+     * @throws IndexOutOfBoundsException if the index is not on the board
+     */
+    public static @NotNull Square of(int index) {
+        return SQUARES[index];
+    }
+
     /**
      * Gets the file this square is on.
      *
@@ -35,6 +64,15 @@ public class Square {
         return rank;
     }
 
+    /**
+     * Gets the index of this square.
+     *
+     * @return square index, from a1 ({@code 0}) to h8 ({@code 63}) rank by rank
+     */
+    public int getIndex() {
+        return rank << 3 | file;
+    }
+
     /**
      * Converts a string like "a1" to a square.
      *
@@ -45,7 +83,7 @@ public class Square {
     public static @NotNull Square fromString(@NotNull String string) {
         if (string.length() != 2)
             throw new IllegalArgumentException("String must be of length 2");
-        return new Square(string.charAt(0) - 'a', string.charAt(1) - '1');
+        return of(string.charAt(0) - 'a', string.charAt(1) - '1');
     }
 
     /**
@@ -61,15 +99,12 @@ public class Square {
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Square square = (Square) o;
-        return file == square.file && rank == square.rank;
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(file, rank);
+        return getIndex();
     }
 
 }
@@ -0,0 +1,88 @@
+package net.trollyloki.mcchess.board;
+
+/**
+ * Random keys for Zobrist hashing of positions.
+ * <br>
+ * The keys are generated from a fixed seed, so they are the same every time the plugin runs.
+ *
+ * @see <a href="https://www.chessprogramming.org/Zobrist_Hashing">Zobrist Hashing</a>
+ */
+public final class Zobrist {
+
+    private Zobrist() {
+    }
+
+    private static final long[] PIECES = new long[12 * 64];
+    private static final long[] CASTLING = new long[16];
+    private static final long[] EN_PASSANT = new long[8];
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        long seed = 0x4D696E6563726166L;
+
+        for (int i = 0; i < PIECES.length; i++)
+            PIECES[i] = seed = next(seed);
+
+        long[] rights = new long[4];
+        for (int i = 0; i < rights.length; i++)
+            rights[i] = seed = next(seed);
+        for (int mask = 0; mask < CASTLING.length; mask++)
+            for (int i = 0; i < rights.length; i++)
+                if ((mask & 1 << i) != 0)
+                    CASTLING[mask] ^= rights[i];
+
+        for (int i = 0; i < EN_PASSANT.length; i++)
+            EN_PASSANT[i] = seed = next(seed);
+
+        BLACK_TO_MOVE = next(seed);
+    }
+
+    // SplitMix64, so that the keys never depend on the JDK's random implementation
+    private static long next(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets the key for a piece on a square.
+     *
+     * @param piece  piece index
+     * @param square square index
+     * @return key
+     */
+    public static long piece(int piece, int square) {
+        return PIECES[piece << 6 | square];
+    }
+
+    /**
+     * Gets the key for a set of castling rights.
+     *
+     * @param rights castling rights bitmask
+     * @return key
+     */
+    public static long castling(int rights) {
+        return CASTLING[rights];
+    }
+
+    /**
+     * Gets the key for an en passant target file.
+     *
+     * @param file file index
+     * @return key
+     */
+    public static long enPassant(int file) {
+        return EN_PASSANT[file];
+    }
+
+    /**
+     * Gets the key for black being the side to move.
+     *
+     * @return key
+     */
+    public static long blackToMove() {
+        return BLACK_TO_MOVE;
+    }
+
+}
@@ -1,24 +1,38 @@
 package net.trollyloki.mcchess.game;
 
 import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.Attacks;
+import net.trollyloki.mcchess.board.BitBoard;
 import net.trollyloki.mcchess.board.Board;
+import net.trollyloki.mcchess.board.FENCodec;
 import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.board.ShadowBoard;
 import net.trollyloki.mcchess.board.Square;
+import net.trollyloki.mcchess.board.Zobrist;
+import net.trollyloki.mcchess.game.move.CheckStatus;
+import net.trollyloki.mcchess.game.move.CompactMove;
 import net.trollyloki.mcchess.game.move.Move;
+import net.trollyloki.mcchess.game.move.MoveGenerator;
 import net.trollyloki.mcchess.game.player.ChessPlayer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.annotations.UnmodifiableView;
-
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -28,6 +42,7 @@ public class Game {
     public static final @NotNull String STANDARD_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
 
     private final @NotNull Board board;
+    private final @NotNull BitBoard position;
 
     private final @Nullable String initialFen;
     private final int initialMoveNumber;
@@ -39,19 +54,36 @@ public class Game {
 
     private final @NotNull Map<Color, ChessPlayer> players = new HashMap<>();
 
-    private final @NotNull List<String> moves = new LinkedList<>();
+    private short @NotNull [] history = new short[64];
+    private long @NotNull [] undoHistory = new long[64];
+    private int historySize = 0;
     private @NotNull String result = "*";
+    private @Nullable Termination termination;
+
+    private long @NotNull [] keyHistory = new long[16];
+    private int keyHistorySize = 0;
+
+    private @Nullable MoveJournal.Log journal;
 
     private @NotNull Color activeColor;
-    private final @NotNull Set<Color> canShortCastle, canLongCastle;
-    private @Nullable Square enPassantSquare;
+    private int castlingRights;
+    private int enPassantSquare;
     private int halfMoves, moveNumber;
 
     public Game(@NotNull Board board, @NotNull Color activeColor, @NotNull Set<Color> canShortCastle, @NotNull Set<Color> canLongCastle, @Nullable Square enPassantSquare, int halfMoves, int moveNumber) {
+        this(board, inMemory(board), activeColor, canShortCastle, canLongCastle, enPassantSquare, halfMoves, moveNumber);
+    }
+
+    private Game(@NotNull Board board, @NotNull BitBoard position, @NotNull Color activeColor, @NotNull Set<Color> canShortCastle, @NotNull Set<Color> canLongCastle, @Nullable Square enPassantSquare, int halfMoves, int moveNumber) {
+        this(board, position, activeColor, castlingRights(canShortCastle, canLongCastle),
+                enPassantSquare != null ? enPassantSquare.getIndex() : -1, halfMoves, moveNumber);
+    }
+
+    private Game(@NotNull Board board, @NotNull BitBoard position, @NotNull Color activeColor, int castlingRights, int enPassantSquare, int halfMoves, int moveNumber) {
         this.board = board;
+        this.position = position;
         this.activeColor = activeColor;
-        this.canShortCastle = new HashSet<>(canShortCastle);
-        this.canLongCastle = new HashSet<>(canLongCastle);
+        this.castlingRights = castlingRights;
         this.enPassantSquare = enPassantSquare;
         this.halfMoves = halfMoves;
         this.moveNumber = moveNumber;
@@ -60,6 +92,9 @@ public class Game {
         this.initialFen = fen.equals(STANDARD_FEN) ? null : fen;
         this.initialMoveNumber = this.moveNumber;
         this.initialActiveColor = this.activeColor;
+
+        recordPosition();
+        adjudicate();
     }
 
     public Game(@NotNull Board board) {
@@ -67,6 +102,19 @@ public class Game {
         validateCastling();
     }
 
+    private static int castlingRights(@NotNull Set<Color> canShortCastle, @NotNull Set<Color> canLongCastle) {
+        int castlingRights = 0;
+        for (Color color : canShortCastle)
+            castlingRights |= castlingRight(color, false);
+        for (Color color : canLongCastle)
+            castlingRights |= castlingRight(color, true);
+        return castlingRights;
+    }
+
+    private static @NotNull BitBoard inMemory(@NotNull Board board) {
+        return board instanceof BitBoard bitBoard ? bitBoard : new ShadowBoard(board);
+    }
+
     /**
      * Gets the board this game is being played on.
      *
@@ -76,6 +124,17 @@ public class Game {
         return board;
     }
 
+    /**
+     * Gets the in-memory position of this game.
+     * <br>
+     * Moves are played on this position, which is rendered to the {@link #getBoard() board}.
+     *
+     * @return position
+     */
+    public @NotNull BitBoard getPosition() {
+        return position;
+    }
+
     public @NotNull String getEvent() {
         return event;
     }
@@ -108,14 +167,90 @@ public class Game {
         players.put(color, player);
     }
 
-    public @UnmodifiableView List<String> getMoves() {
-        return Collections.unmodifiableList(moves);
+    /**
+     * Gets the moves played in this game.
+     * <br>
+     * Moves are stored packed, so their SAN is rendered by replaying the game from its initial position.
+     * Moves that give check or checkmate end with {@code +} or {@code #}.
+     *
+     * @return list of SAN moves
+     */
+    public @Unmodifiable List<String> getMoves() {
+        String[] sans = new String[historySize];
+        Game replay = replay();
+        for (int i = 0; i < historySize; i++)
+            sans[i] = replay.playForSAN(getCompactMove(i));
+        return List.of(sans);
+    }
+
+    /**
+     * Creates a copy of this game's initial position on a new in-memory board, to replay its moves on.
+     */
+    private @NotNull Game replay() {
+        return fromFEN(getInitialFEN(), new BitBoard());
+    }
+
+    /**
+     * Gets the position this game started from.
+     *
+     * @return FEN
+     */
+    public @NotNull String getInitialFEN() {
+        return initialFen != null ? initialFen : STANDARD_FEN;
+    }
+
+    /**
+     * Plays a packed move and gets its SAN, including the check or checkmate postfix.
+     */
+    private @NotNull String playForSAN(int move) {
+        String san = CompactMove.toMove(move, position).toSAN();
+        makeMove(move);
+        return getCheckStatus().map(checkStatus -> san + checkStatus.getPostfix()).orElse(san);
+    }
+
+    /**
+     * Gets the number of half moves played in this game.
+     *
+     * @return number of plies
+     */
+    public int getPlyCount() {
+        return historySize;
+    }
+
+    /**
+     * Gets a move played in this game.
+     *
+     * @param ply index of the move, from {@code 0} to {@link #getPlyCount()} exclusive
+     * @return packed move
+     * @see CompactMove
+     */
+    public int getCompactMove(int ply) {
+        Objects.checkIndex(ply, historySize);
+        return history[ply] & 0xFFFF;
     }
 
     public @NotNull String getResult() {
         return result;
     }
 
+    /**
+     * Checks if this game has a result.
+     *
+     * @return {@code true} if the game is over, otherwise {@code false}
+     */
+    public boolean isOver() {
+        return termination != null;
+    }
+
+    /**
+     * Gets the reason this game ended.
+     *
+     * @return optional termination, empty if the game is not over
+     */
+    public @NotNull Optional<Termination> getTermination() {
+        return Optional.ofNullable(termination);
+    }
+
     /**
      * Gets the color that moves next.
      *
@@ -134,65 +269,374 @@ public class Game {
         this.activeColor = activeColor;
     }
 
+    /**
+     * Gets the bit for a castling right in a {@link #getCastlingRights() castling rights bitmask}.
+     *
+     * @param color     color
+     * @param queenside {@code true} for long castling, {@code false} for short castling
+     * @return castling right bit
+     */
+    public static int castlingRight(@NotNull Color color, boolean queenside) {
+        return 1 << (color.ordinal() << 1 | (queenside ? 1 : 0));
+    }
+
+    /**
+     * Gets the castling rights in this game.
+     *
+     * @return castling rights bitmask, one bit per color and side
+     */
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    public boolean canShortCastle(@NotNull Color color) {
+        return (castlingRights & castlingRight(color, false)) != 0;
+    }
+
+    public boolean canLongCastle(@NotNull Color color) {
+        return (castlingRights & castlingRight(color, true)) != 0;
+    }
+
     public void setCanShortCastle(@NotNull Color color, boolean canCastle) {
         if (canCastle)
-            canShortCastle.add(color);
+            castlingRights |= castlingRight(color, false);
         else
-            canShortCastle.remove(color);
+            castlingRights &= ~castlingRight(color, false);
     }
 
     public void setCanLongCastle(@NotNull Color color, boolean canCastle) {
         if (canCastle)
-            canLongCastle.add(color);
+            castlingRights |= castlingRight(color, true);
         else
-            canLongCastle.remove(color);
+            castlingRights &= ~castlingRight(color, true);
+    }
+
+    public @NotNull Optional<Square> getEnPassantSquare() {
+        return enPassantSquare >= 0 ? Optional.of(Square.of(enPassantSquare)) : Optional.empty();
+    }
+
+    /**
+     * Gets the en passant target square in this game without allocating.
+     *
+     * @return square index, or {@code -1} if there is no en passant target square
+     */
+    public int getEnPassantIndex() {
+        return enPassantSquare;
     }
 
     public void setEnPassantSquare(@Nullable Square enPassantSquare) {
-        this.enPassantSquare = enPassantSquare;
+        this.enPassantSquare = enPassantSquare != null ? enPassantSquare.getIndex() : -1;
     }
 
     public @NotNull CompletableFuture<Boolean> play() {
+        if (isOver())
+            return CompletableFuture.completedFuture(false);
         return getPlayer(getActiveColor()).map(player -> player.play(this))
                 .orElseGet(() -> CompletableFuture.completedFuture(false));
     }
 
     /**
-     * Performs a move.
+     * Checks if a move is legal in the current position.
+     *
+     * @param move move
+     * @return {@code true} if the move is legal, otherwise {@code false}
+     */
+    public boolean isLegal(@NotNull Move move) {
+        return MoveGenerator.isLegal(this, move.toCompact());
+    }
+
+    /**
+     * Performs a move, after checking that it is legal, and records it in this game's {@linkplain #getJournal() journal}.
      *
      * @param move move
+     * @throws IllegalArgumentException if the move is illegal
      */
     public void performMove(@NotNull Move move) {
-        move.play(this.getBoard());
-        moves.add(move.toSAN());
+        int packed = move.toCompact();
+        if (!MoveGenerator.isLegal(this, packed))
+            throw new IllegalArgumentException("Illegal move " + move.toUCI());
+        makeMove(packed);
+        if (journal != null)
+            journal.append(historySize - 1, packed);
+    }
 
-        validateCastling();
+    /**
+     * Gets the journal that records the moves performed in this game.
+     *
+     * @return journal file, if any
+     * @see MoveJournal#start(java.util.UUID, Game)
+     */
+    public @NotNull Optional<MoveJournal.Log> getJournal() {
+        return Optional.ofNullable(journal);
+    }
+
+    void setJournal(@Nullable MoveJournal.Log journal) {
+        this.journal = journal;
+    }
 
-        enPassantSquare = move.getEnPassantSquare().orElse(null);
+    private static final int PAWN = Piece.Type.PAWN.ordinal();
+    private static final int[] CASTLING_RIGHTS_KEPT = new int[64];
 
-        if (move.isPawnMoveOrCapture())
-            halfMoves = 0;
-        else
-            halfMoves++;
+    static {
+        Arrays.fill(CASTLING_RIGHTS_KEPT, -1);
+        for (Color color : Color.values()) {
+            int rank = color.getBackRank() << 3;
+            CASTLING_RIGHTS_KEPT[rank + 4] &= ~(castlingRight(color, false) | castlingRight(color, true));
+            CASTLING_RIGHTS_KEPT[rank + 7] &= ~castlingRight(color, false);
+            CASTLING_RIGHTS_KEPT[rank] &= ~castlingRight(color, true);
+        }
+    }
+
+    /**
+     * Removes the castling rights lost by a move, which are those of any king or rook it moves from or captures on.
+     *
+     * @param castlingRights castling rights bitmask before the move
+     * @param move           packed move
+     * @return castling rights bitmask after the move
+     */
+    public static int updateCastlingRights(int castlingRights, int move) {
+        return castlingRights & CASTLING_RIGHTS_KEPT[CompactMove.getFrom(move)] & CASTLING_RIGHTS_KEPT[CompactMove.getTo(move)];
+    }
+
+    /**
+     * Performs a packed move without allocating.
+     * <br>
+     * Everything the move cannot restore by itself is pushed to an undo stack, so it can be taken back with {@link #undoMove()}.
+     * The move is not checked, so it must be legal, as generated by {@link MoveGenerator} or checked with {@link MoveGenerator#isLegal(Game, int)}.
+     *
+     * @param move packed move
+     * @see CompactMove
+     */
+    public void makeMove(int move) {
+        replayMove(move);
+        adjudicate();
+    }
+
+    /**
+     * Performs a packed move like {@link #makeMove(int)}, but without checking whether the game is over afterwards.
+     * <br>
+     * This is for replaying moves that are already known to be legal, after which {@link #adjudicate()} must be called
+     * once before the game is used.
+     *
+     * @param move packed move
+     */
+    void replayMove(int move) {
+        int from = CompactMove.getFrom(move), to = CompactMove.getTo(move), flag = CompactMove.getFlag(move);
+        int piece = position.getPiece(from);
+        if (piece < 0)
+            throw new IllegalArgumentException("No piece on " + Square.of(from));
+        boolean pawn = piece % 6 == PAWN;
+
+        int capturedSquare = to;
+        if (flag == CompactMove.EN_PASSANT
+                || flag == CompactMove.NORMAL && pawn && (from & 7) != (to & 7) && position.getPiece(to) < 0)
+            capturedSquare = from & ~7 | to & 7;
+        int captured = flag == CompactMove.CASTLING ? -1 : position.getPiece(capturedSquare);
+
+        if (historySize == history.length) {
+            history = Arrays.copyOf(history, historySize * 2);
+            undoHistory = Arrays.copyOf(undoHistory, historySize * 2);
+        }
+        history[historySize] = (short) move;
+        undoHistory[historySize++] = captured + 1 | castlingRights << 4 | enPassantSquare + 1 << 8
+                | (capturedSquare != to ? 1 << 15 : 0) | (long) halfMoves << 16;
+
+        switch (flag) {
+            case CompactMove.CASTLING -> {
+                int rank = from & ~7;
+                boolean queenside = to < from;
+                position.movePiece(from, to);
+                position.movePiece(rank + (queenside ? 0 : 7), rank + (queenside ? 3 : 5));
+            }
+            case CompactMove.PROMOTION -> {
+                position.setPiece(from, -1);
+                position.setPiece(to, piece - PAWN + CompactMove.getPromotionType(move).ordinal());
+            }
+            default -> {
+                if (capturedSquare != to)
+                    position.setPiece(capturedSquare, -1);
+                position.movePiece(from, to);
+            }
+        }
+
+        castlingRights = updateCastlingRights(castlingRights, move);
+        enPassantSquare = pawn && Math.abs(to - from) == 16 ? (from + to) >>> 1 : -1;
+        halfMoves = pawn || captured >= 0 ? 0 : halfMoves + 1;
 
         activeColor = activeColor.opposite();
         if (activeColor == Color.WHITE)
             moveNumber++;
+
+        recordPosition();
+    }
+
+    /**
+     * Takes back the last move played in this game.
+     *
+     * @return packed move that was taken back
+     * @throws IllegalStateException if no moves have been played
+     */
+    public int undoMove() {
+        if (historySize == 0)
+            throw new IllegalStateException("There are no moves to undo");
+
+        int move = history[--historySize] & 0xFFFF;
+        long undo = undoHistory[historySize];
+        keyHistorySize--;
+
+        if (activeColor == Color.WHITE)
+            moveNumber--;
+        activeColor = activeColor.opposite();
+
+        castlingRights = (int) (undo >>> 4 & 15);
+        enPassantSquare = (int) (undo >>> 8 & 127) - 1;
+        halfMoves = (int) (undo >>> 16);
+
+        int from = CompactMove.getFrom(move), to = CompactMove.getTo(move);
+        int captured = (int) (undo & 15) - 1;
+        switch (CompactMove.getFlag(move)) {
+            case CompactMove.CASTLING -> {
+                int rank = from & ~7;
+                boolean queenside = to < from;
+                position.movePiece(to, from);
+                position.movePiece(rank + (queenside ? 3 : 5), rank + (queenside ? 0 : 7));
+            }
+            case CompactMove.PROMOTION -> {
+                int promoted = position.getPiece(to);
+                position.setPiece(to, captured);
+                position.setPiece(from, promoted - promoted % 6 + PAWN);
+            }
+            default -> {
+                position.movePiece(to, from);
+                if ((undo & 1 << 15) != 0)
+                    position.setPiece(from & ~7 | to & 7, captured);
+                else if (captured >= 0)
+                    position.setPiece(to, captured);
+            }
+        }
+
+        termination = null;
+        result = "*";
+        adjudicate();
+        return move;
+    }
+
+    private void recordPosition() {
+        if (keyHistorySize == keyHistory.length)
+            keyHistory = Arrays.copyOf(keyHistory, keyHistorySize * 2);
+        keyHistory[keyHistorySize++] = getKey();
+    }
+
+    /**
+     * Counts how many times the current position has occurred since the last irreversible move.
+     *
+     * @return number of occurrences, including the current one
+     */
+    public int getRepetitionCount() {
+        long key = keyHistory[keyHistorySize - 1];
+        int count = 0;
+        // positions before an irreversible move can never be repeated,
+        // and the same side must be to move, so only every other position can match
+        int oldest = Math.max(0, keyHistorySize - 1 - halfMoves);
+        for (int i = keyHistorySize - 1; i >= oldest; i -= 2) {
+            if (keyHistory[i] == key)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if neither side has enough material left to checkmate.
+     *
+     * @return {@code true} if the material is insufficient, otherwise {@code false}
+     */
+    public boolean hasInsufficientMaterial() {
+        long majorsAndPawns = 0, bishops = 0, knights = 0;
+        for (int side = 0; side < 12; side += 6) {
+            majorsAndPawns |= position.getPieces(side + Piece.Type.QUEEN.ordinal())
+                    | position.getPieces(side + Piece.Type.ROOK.ordinal())
+                    | position.getPieces(side + Piece.Type.PAWN.ordinal());
+            bishops |= position.getPieces(side + Piece.Type.BISHOP.ordinal());
+            knights |= position.getPieces(side + Piece.Type.KNIGHT.ordinal());
+        }
+        if (majorsAndPawns != 0)
+            return false;
+
+        long minors = bishops | knights;
+        if ((minors & minors - 1) == 0)
+            return true; // at most one minor piece
+
+        // any number of bishops that all stand on the same square color
+        return knights == 0 && ((bishops & LIGHT_SQUARES) == 0 || (bishops & ~LIGHT_SQUARES) == 0);
+    }
+
+    private static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+    /**
+     * Checks if the king of the active color is attacked.
+     *
+     * @return {@code true} if the active color is in check, otherwise {@code false}
+     */
+    public boolean isInCheck() {
+        return position.isInCheck(activeColor);
+    }
+
+    /**
+     * Gets whether the active color is in check or checkmated.
+     *
+     * @return optional check status, empty if the active color is not in check
+     */
+    public @NotNull Optional<CheckStatus> getCheckStatus() {
+        if (!isInCheck())
+            return Optional.empty();
+        return Optional.of(termination == Termination.CHECKMATE ? CheckStatus.CHECKMATE : CheckStatus.CHECK);
+    }
+
+    /**
+     * Ends this game if the side to move is checkmated or stalemated, or the position is drawn.
+     */
+    void adjudicate() {
+        if (isOver())
+            return;
+
+        if (!MoveGenerator.hasLegalMoves(this)) {
+            if (isInCheck()) {
+                termination = Termination.CHECKMATE;
+                result = activeColor == Color.WHITE ? "0-1" : "1-0";
+            } else {
+                termination = Termination.STALEMATE;
+                result = "1/2-1/2";
+            }
+            return;
+        }
+
+        if (hasInsufficientMaterial())
+            termination = Termination.INSUFFICIENT_MATERIAL;
+        else if (halfMoves >= 100)
+            termination = Termination.FIFTY_MOVE_RULE;
+        else if (getRepetitionCount() >= 3)
+            termination = Termination.THREEFOLD_REPETITION;
+        else
+            return;
+
+        result = "1/2-1/2";
     }
 
     /**
      * Performs a move specified by UCI LAN.
      *
      * @param uciMove UCI LAN
+     * @throws IllegalArgumentException if the move is invalid or illegal
      */
     public void performUciMove(@NotNull String uciMove) {
-        performMove(Move.fromUCI(uciMove, board));
+        performMove(Move.fromUCI(uciMove, position));
     }
 
     /**
      * Performs a move specified by SAN.
      *
      * @param san SAN
+     * @throws IllegalArgumentException if the move is invalid or illegal
      */
     public void performSanMove(@NotNull String san) {
         performMove(Move.fromSAN(san, this));
@@ -200,41 +644,39 @@ public class Game {
 
     public void validateCastling() {
         for (Color color : Color.values()) {
-            if (canShortCastle.contains(color) || canLongCastle.contains(color)) {
+            if (canShortCastle(color) || canLongCastle(color)) {
                 int backRank = color.getBackRank();
 
-                if (!board.isPieceAt(new Square(4, backRank), new Piece(color, Piece.Type.KING))) {
-                    canShortCastle.remove(color);
-                    canLongCastle.remove(color);
+                if (!position.isPieceAt(Square.of(4, backRank), Piece.of(color, Piece.Type.KING))) {
+                    setCanShortCastle(color, false);
+                    setCanLongCastle(color, false);
                     continue;
                 }
 
-                if (canShortCastle.contains(color) && !board.isPieceAt(new Square(7, backRank), new Piece(color, Piece.Type.ROOK)))
-                    canShortCastle.remove(color);
-                if (canLongCastle.contains(color) && !board.isPieceAt(new Square(0, backRank), new Piece(color, Piece.Type.ROOK)))
-                    canLongCastle.remove(color);
+                if (canShortCastle(color) && !position.isPieceAt(Square.of(7, backRank), Piece.of(color, Piece.Type.ROOK)))
+                    setCanShortCastle(color, false);
+                if (canLongCastle(color) && !position.isPieceAt(Square.of(0, backRank), Piece.of(color, Piece.Type.ROOK)))
+                    setCanLongCastle(color, false);
 
             }
         }
     }
 
     private boolean isEnPassantSquareValid() {
-        if (enPassantSquare == null)
+        if (enPassantSquare < 0)
             return true;
 
-        if (!Board.inBounds(enPassantSquare))
+        if (position.getPiece(enPassantSquare) >= 0)
             return false;
 
-        if (board.getPieceAt(enPassantSquare).isPresent())
-            return false;
-
-        int pawnRank = enPassantSquare.getRank() + activeColor.opposite().getPawnDirection();
-        return board.isPieceAt(new Square(enPassantSquare.getFile(), pawnRank), new Piece(activeColor.opposite(), Piece.Type.PAWN));
+        int pawnSquare = enPassantSquare + activeColor.opposite().getPawnDirection() * 8;
+        return pawnSquare >= 0 && pawnSquare < 64
+                && position.getPiece(pawnSquare) == BitBoard.index(activeColor.opposite(), Piece.Type.PAWN);
     }
 
     public void validateEnPassantSquare() {
         if (!isEnPassantSquareValid()) {
-            enPassantSquare = null;
+            enPassantSquare = -1;
         }
     }
 
@@ -248,39 +690,44 @@ public class Game {
         validateCastling();
         validateEnPassantSquare();
 
-        StringBuilder builder = new StringBuilder(board.toFEN());
-
-        builder.append(' ');
-        builder.append(activeColor.getLetter());
+        byte[] buffer = new byte[FENCodec.MAX_LENGTH];
+        int length = FENCodec.format(position, activeColor, castlingRights, enPassantSquare, halfMoves, moveNumber, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
 
-        builder.append(' ');
-        if (canShortCastle.isEmpty() && canLongCastle.isEmpty()) {
+    private void appendCastlingRights(@NotNull StringBuilder builder) {
+        if (castlingRights == 0) {
             builder.append('-');
         } else {
-            if (canShortCastle.contains(Color.WHITE))
+            if (canShortCastle(Color.WHITE))
                 builder.append('K');
-            if (canLongCastle.contains(Color.WHITE))
+            if (canLongCastle(Color.WHITE))
                 builder.append('Q');
-            if (canShortCastle.contains(Color.BLACK))
+            if (canShortCastle(Color.BLACK))
                 builder.append('k');
-            if (canLongCastle.contains(Color.BLACK))
+            if (canLongCastle(Color.BLACK))
                 builder.append('q');
         }
+    }
 
-        builder.append(' ');
-        if (enPassantSquare == null) {
-            builder.append('-');
-        } else {
-            builder.append(enPassantSquare);
-        }
-
-        builder.append(' ');
-        builder.append(halfMoves);
-
-        builder.append(' ');
-        builder.append(moveNumber);
-
-        return builder.toString();
+    /**
+     * Gets the Zobrist key of the current position in this game.
+     * <br>
+     * This covers the pieces, active color, castling rights and en passant target square
+     * (only when a pawn could actually capture there), so equal keys identify repeated positions.
+     * The piece part of the key is kept up to date incrementally by the position as moves are played.
+     *
+     * @return key
+     * @see Zobrist
+     */
+    public long getKey() {
+        long key = position.getKey() ^ Zobrist.castling(castlingRights);
+        if (activeColor == Color.BLACK)
+            key ^= Zobrist.blackToMove();
+        if (enPassantSquare >= 0 && (Attacks.pawn(activeColor.opposite(), enPassantSquare)
+                & position.getPieces(activeColor, Piece.Type.PAWN)) != 0)
+            key ^= Zobrist.enPassant(enPassantSquare & 7);
+        return key;
     }
 
     /**
@@ -289,106 +736,173 @@ public class Game {
      * @param fen   FEN record
      * @param board board to load the game onto
      * @return game
+     * @throws IllegalArgumentException if the FEN record is not valid
+     * @see FENCodec
      * @see <a href="https://en.wikipedia.org/wiki/Forsyth%E2%80%93Edwards_Notation">Forsyth–Edwards Notation</a>
      */
     public static @NotNull Game fromFEN(@NotNull String fen, @NotNull Board board) {
-        String[] split = fen.split(" ");
-
-        Color activeColor = Color.fromLetter(split[1].charAt(0));
-
-        Set<Color> canShortCastle = new HashSet<>(2);
-        Set<Color> canLongCastle = new HashSet<>(2);
-        for (char letter : split[2].toCharArray()) {
-            switch (letter) {
-                case 'K' -> canShortCastle.add(Color.WHITE);
-                case 'Q' -> canLongCastle.add(Color.WHITE);
-                case 'k' -> canShortCastle.add(Color.BLACK);
-                case 'q' -> canLongCastle.add(Color.BLACK);
-            }
-        }
-
-        Square enPassantSquare = null;
-        if (split[3].charAt(0) != '-')
-            enPassantSquare = Square.fromString(split[3]);
-
-        int halfMoves = Integer.parseInt(split[4]);
-        int moves = Integer.parseInt(split[5]);
-
-        board.loadFromFEN(split[0]);
-
-        return new Game(board, activeColor, canShortCastle, canLongCastle, enPassantSquare, halfMoves, moves);
+        FENCodec codec = new FENCodec();
+        BitBoard position = inMemory(board);
+        codec.parse(fen, position);
+        return new Game(board, position, codec.getActiveColor(), codec.getCastlingRights(), codec.getEnPassantSquare(),
+                codec.getHalfMoves(), codec.getMoveNumber());
     }
 
     private static final @NotNull DateTimeFormatter
             PGN_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd", Locale.ROOT),
             PGN_TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss", Locale.ROOT);
 
+    /**
+     * Writes this game as a compact binary snapshot of its initial position, metadata and packed moves.
+     * <br>
+     * Players are not included, because neither engines nor online players survive a restart.
+     *
+     * @param out destination
+     * @throws IOException if an I/O error occurs
+     * @see #readSnapshot(DataInput, Board)
+     */
+    public void writeSnapshot(@NotNull DataOutput out) throws IOException {
+        out.writeUTF(getInitialFEN());
+        out.writeUTF(event);
+        out.writeInt(round);
+        out.writeLong(startTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(startTime.getNano());
+        out.writeInt(historySize);
+        for (int i = 0; i < historySize; i++)
+            out.writeShort(history[i]);
+    }
+
+    /**
+     * Restores a game from a snapshot by replaying its moves, each of which is checked to be legal.
+     *
+     * @param in    source
+     * @param board board to play on
+     * @return game
+     * @throws IOException if an I/O error occurs or the snapshot is invalid
+     * @see #writeSnapshot(DataOutput)
+     */
+    public static @NotNull Game readSnapshot(@NotNull DataInput in, @NotNull Board board) throws IOException {
+        String fen = in.readUTF();
+        Game game;
+        try {
+            game = fromFEN(fen, board);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid FEN in snapshot: " + fen, e);
+        }
+
+        game.event = in.readUTF();
+        game.round = in.readInt();
+        game.startTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+
+        int plies = in.readInt();
+        for (int i = 0; i < plies; i++) {
+            int move = in.readUnsignedShort();
+            if (!MoveGenerator.isLegal(game, move))
+                throw new IOException("Illegal move in snapshot: " + CompactMove.toUCI(move));
+            game.makeMove(move);
+        }
+        return game;
+    }
+
     /**
      * Saves this game in PGN format.
      *
      * @return PGN text
+     * @see #writePGN(Appendable)
      */
     public @NotNull String toPGN() {
         StringBuilder builder = new StringBuilder();
+        try {
+            writePGN(builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a string builder never throws
+        }
+        return builder.toString();
+    }
 
+    /**
+     * Writes this game in PGN format.
+     * <br>
+     * Tags and moves are appended one at a time as the game is replayed, so the document is never built in memory.
+     *
+     * @param out destination, which is not flushed or closed
+     * @throws IOException if an I/O error occurs
+     * @see PGNWriter
+     */
+    public void writePGN(@NotNull Appendable out) throws IOException {
         // Required tags
-        builder.append("[Event \"").append(event).append("\"]\n");
-        builder.append("[Site \"").append(board.getSite()).append("\"]\n");
-        builder.append("[Date \"").append(startTime.format(PGN_DATE_FORMAT)).append("\"]\n");
-        builder.append("[Round \"").append(round).append("\"]\n");
-        builder.append("[White \"").append(
-                players.containsKey(Color.WHITE) ? players.get(Color.WHITE).getName() : "White"
-        ).append("\"]\n");
-        builder.append("[Black \"").append(
-                players.containsKey(Color.BLACK) ? players.get(Color.BLACK).getName() : "Black"
-        ).append("\"]\n");
-        builder.append("[Result \"").append(result).append("\"]\n");
+        writeTag(out, "Event", event);
+        writeTag(out, "Site", board.getSite());
+        out.append("[Date \"");
+        formatTo(PGN_DATE_FORMAT, out);
+        out.append("\"]\n");
+        writeTag(out, "Round", Integer.toString(round));
+        writeTag(out, "White", players.containsKey(Color.WHITE) ? players.get(Color.WHITE).getName() : "White");
+        writeTag(out, "Black", players.containsKey(Color.BLACK) ? players.get(Color.BLACK).getName() : "Black");
+        writeTag(out, "Result", result);
 
         // Optional tags
-        builder.append("[Time \"").append(startTime.format(PGN_TIME_FORMAT)).append("\"]\n");
-        builder.append("[Mode \"ICS\"]\n");
+        out.append("[Time \"");
+        formatTo(PGN_TIME_FORMAT, out);
+        out.append("\"]\n");
+        writeTag(out, "Mode", "ICS");
         if (initialFen != null) {
-            builder.append("[SetUp \"1\"]\n");
-            builder.append("[FEN \"").append(initialFen).append("\"]\n");
+            writeTag(out, "SetUp", "1");
+            writeTag(out, "FEN", initialFen);
         }
 
         // Movetext
-        builder.append('\n');
+        out.append('\n');
 
         if (initialActiveColor == Color.BLACK)
-            builder.append(initialMoveNumber).append("...");
-
-        int moveNumber = initialMoveNumber;
-        Color activeColor = initialActiveColor;
-        for (String san : moves) {
-            if (activeColor == Color.WHITE) {
-                if (moveNumber != initialMoveNumber)
-                    builder.append(' ');
-                builder.append(moveNumber).append('.');
+            out.append(Integer.toString(initialMoveNumber)).append("...");
+
+        Game replay = replay();
+        for (int i = 0; i < historySize; i++) {
+            if (replay.activeColor == Color.WHITE) {
+                if (i != 0)
+                    out.append(' ');
+                out.append(Integer.toString(replay.moveNumber)).append('.');
             }
 
-            builder.append(' ');
-            builder.append(san);
-
-            if (activeColor == Color.BLACK)
-                moveNumber++;
-            activeColor = activeColor.opposite();
+            out.append(' ');
+            out.append(replay.playForSAN(getCompactMove(i)));
         }
 
         if (!result.equals("*"))
-            builder.append(' ').append(result);
+            out.append(' ').append(result);
+    }
 
-        return builder.toString();
+    private static void writeTag(@NotNull Appendable out, @NotNull String name, @NotNull String value) throws IOException {
+        out.append('[').append(name).append(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.append('\\');
+            out.append(c);
+        }
+        out.append("\"]\n");
+    }
+
+    private void formatTo(@NotNull DateTimeFormatter formatter, @NotNull Appendable out) throws IOException {
+        try {
+            formatter.formatTo(startTime, out);
+        } catch (DateTimeException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            throw e;
+        }
     }
 
     @Override
     public String toString() {
+        StringBuilder castling = new StringBuilder(4);
+        appendCastlingRights(castling);
         return "Game{" +
                 "board=" + board +
                 ", activeColor=" + activeColor +
-                ", canShortCastle=" + canShortCastle +
-                ", canLongCastle=" + canLongCastle +
-                ", enPassantSquare=" + enPassantSquare +
+                ", castlingRights=" + castling +
+                ", enPassantSquare=" + getEnPassantSquare().orElse(null) +
                 ", halfMoves=" + halfMoves +
                 ", moves=" + moveNumber +
                 '}';
@@ -0,0 +1,351 @@
+package net.trollyloki.mcchess.game;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the moves played in each game, used to recover games after a crash.
+ * <br>
+ * Each game has its own file, named after its id, holding its initial position followed by one 4-byte record per
+ * move (ply and packed move), or per take back (ply and {@code 0}, which is never a legal move).
+ * Callers only enqueue records, so they never wait for the disk. A single background thread writes every record
+ * that has queued up since its last batch and then syncs each file it touched once, so a crash loses at most the
+ * batch that was being written.
+ */
+public class MoveJournal implements Closeable {
+
+    private static final int MAGIC = 0x4D434A31; // "MCJ1"
+    private static final String EXTENSION = ".journal";
+    private static final int TAKE_BACK = 0;
+
+    private final @NotNull Path directory;
+    private final @NotNull Logger logger;
+    private final @NotNull LinkedBlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+    private final @NotNull Thread thread;
+    private final @NotNull Map<UUID, FileChannel> channels = new HashMap<>();
+    private volatile boolean closed = false;
+
+    private static final Operation CLOSE = new Operation(new UUID(0, 0), null, 0, 0);
+
+    /**
+     * Opens a journal and starts its writer thread.
+     *
+     * @param directory directory to keep the journal files in, which is created if it does not exist
+     * @param logger    logger to report write failures to
+     * @throws IOException if the directory cannot be created
+     */
+    public MoveJournal(@NotNull Path directory, @NotNull Logger logger) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.logger = logger;
+        this.thread = new Thread(this::run, "Chess Move Journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A game's journal file, which records the moves passed to {@link Game#performMove}.
+     */
+    public final class Log {
+
+        private final @NotNull UUID id;
+
+        private Log(@NotNull UUID id) {
+            this.id = id;
+        }
+
+        public @NotNull UUID getId() {
+            return id;
+        }
+
+        void append(int ply, int move) {
+            enqueue(new Operation(id, null, ply, move));
+        }
+
+        /**
+         * Records that moves were taken back.
+         *
+         * @param plies number of plies left in the game
+         */
+        public void truncate(int plies) {
+            append(plies, TAKE_BACK);
+        }
+
+    }
+
+    /**
+     * Starts a new journal file for a game, replacing any previous file with the same id, and attaches it to the game.
+     * <br>
+     * The moves the game has already played are written to the new file.
+     *
+     * @param id   id of the game
+     * @param game game
+     * @return journal file
+     */
+    public @NotNull Log start(@NotNull UUID id, @NotNull Game game) {
+        int[] moves = new int[game.getPlyCount()];
+        for (int i = 0; i < moves.length; i++)
+            moves[i] = game.getCompactMove(i);
+        enqueue(new Operation(id, new Recording(game.getInitialFEN(), moves), 0, 0));
+
+        Log log = new Log(id);
+        game.setJournal(log);
+        return log;
+    }
+
+    /**
+     * Deletes a game's journal file.
+     *
+     * @param id id of the game
+     */
+    public void delete(@NotNull UUID id) {
+        enqueue(new Operation(id, null, -1, 0));
+    }
+
+    private void enqueue(@NotNull Operation operation) {
+        if (!closed) // moves made while the plugin is being disabled are covered by its final snapshot
+            queue.add(operation);
+    }
+
+    /**
+     * The moves of a game recovered from its journal file.
+     */
+    public static final class Recording {
+
+        private final @NotNull String initialFen;
+        private final int @NotNull [] moves;
+
+        private Recording(@NotNull String initialFen, int @NotNull [] moves) {
+            this.initialFen = initialFen;
+            this.moves = moves;
+        }
+
+        public @NotNull String getInitialFEN() {
+            return initialFen;
+        }
+
+        /**
+         * Gets the packed moves of the game, with any take backs already applied.
+         *
+         * @return packed moves
+         */
+        public int @NotNull [] getMoves() {
+            return moves;
+        }
+
+    }
+
+    /**
+     * Gets the ids of all games with a journal file.
+     * <br>
+     * This should only be called before any game is {@linkplain #start started}.
+     *
+     * @return game ids
+     * @throws IOException if the directory cannot be read
+     */
+    public @NotNull List<UUID> list() throws IOException {
+        List<UUID> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(UUID.fromString(name.substring(0, name.length() - EXTENSION.length())));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Reads a game's journal file.
+     * <br>
+     * A record torn by a crash at the end of the file is ignored.
+     * This should only be called before the game is {@linkplain #start started}.
+     *
+     * @param id id of the game
+     * @return recording, or {@code null} if there is no journal file for the game
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public @Nullable Recording read(@NotNull UUID id) throws IOException {
+        Path file = getFile(id);
+        if (!Files.exists(file))
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a move journal: " + file);
+        int fenLength = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < fenLength)
+            throw new IOException("Truncated move journal: " + file);
+        String fen = new String(buffer.array(), buffer.position(), fenLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + fenLength);
+
+        int[] moves = new int[64];
+        int plies = 0;
+        while (buffer.remaining() >= 4) {
+            int ply = buffer.getShort() & 0xFFFF, move = buffer.getShort() & 0xFFFF;
+            if (ply > plies)
+                throw new IOException("Missing moves before ply " + ply + " in " + file);
+            plies = ply;
+            if (move != TAKE_BACK) {
+                if (plies == moves.length)
+                    moves = Arrays.copyOf(moves, plies * 2);
+                moves[plies++] = move;
+            }
+        }
+        return new Recording(fen, Arrays.copyOf(moves, plies));
+    }
+
+    private @NotNull Path getFile(@NotNull UUID id) {
+        return directory.resolve(id + EXTENSION);
+    }
+
+    /**
+     * Writes everything that has been queued, then stops the writer thread and closes all files.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        queue.add(CLOSE); // not an interrupt, which would close any file channel the thread is using
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Operation> batch = new ArrayList<>();
+        Map<UUID, ByteBuffer> pending = new HashMap<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+
+            for (Operation operation : batch) {
+                if (operation == CLOSE) {
+                    stop = true;
+                    continue;
+                }
+                try {
+                    apply(operation, pending);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to write move journal for game " + operation.id, e);
+                }
+            }
+            batch.clear();
+            flush(pending);
+        }
+
+        for (FileChannel channel : channels.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close move journal", e);
+            }
+        }
+        channels.clear();
+    }
+
+    private void apply(@NotNull Operation operation, @NotNull Map<UUID, ByteBuffer> pending) throws IOException {
+        UUID id = operation.id;
+        if (operation.recording != null || operation.ply < 0) {
+            // the file is replaced, so anything still pending for it is obsolete
+            pending.remove(id);
+            FileChannel channel = channels.remove(id);
+            if (channel != null)
+                channel.close();
+            Files.deleteIfExists(getFile(id));
+            if (operation.recording == null)
+                return;
+
+            channels.put(id, FileChannel.open(getFile(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+            byte[] fen = operation.recording.initialFen.getBytes(StandardCharsets.UTF_8);
+            int[] moves = operation.recording.moves;
+            ByteBuffer buffer = reserve(pending, id, 6 + fen.length + moves.length * 4);
+            buffer.putInt(MAGIC).putShort((short) fen.length).put(fen);
+            for (int ply = 0; ply < moves.length; ply++)
+                buffer.putShort((short) ply).putShort((short) moves[ply]);
+            return;
+        }
+
+        if (!channels.containsKey(id))
+            return; // the file has been deleted
+        reserve(pending, id, 4).putShort((short) operation.ply).putShort((short) operation.move);
+    }
+
+    private static @NotNull ByteBuffer reserve(@NotNull Map<UUID, ByteBuffer> pending, @NotNull UUID id, int bytes) {
+        ByteBuffer buffer = pending.get(id);
+        if (buffer == null || buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(256, (buffer == null ? 0 : buffer.position()) + bytes) * 2);
+            if (buffer != null)
+                grown.put(buffer.flip());
+            pending.put(id, buffer = grown);
+        }
+        return buffer;
+    }
+
+    private void flush(@NotNull Map<UUID, ByteBuffer> pending) {
+        for (Map.Entry<UUID, ByteBuffer> entry : pending.entrySet()) {
+            ByteBuffer buffer = entry.getValue();
+            if (buffer.position() == 0)
+                continue;
+
+            FileChannel channel = channels.get(entry.getKey());
+            try {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to write move journal for game " + entry.getKey(), e);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class Operation {
+
+        private final @NotNull UUID id;
+        private final @Nullable Recording recording;
+        private final int ply, move;
+
+        /**
+         * @param recording contents of a new file, or {@code null}
+         * @param ply       ply of the move, or {@code -1} to delete the file
+         */
+        private Operation(@NotNull UUID id, @Nullable Recording recording, int ply, int move) {
+            this.id = id;
+            this.recording = recording;
+            this.ply = ply;
+            this.move = move;
+        }
+
+    }
+
+}
@@ -0,0 +1,673 @@
+package net.trollyloki.mcchess.game;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Board;
+import net.trollyloki.mcchess.board.FENCodec;
+import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.game.move.CompactMove;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads games lazily from a memory-mapped PGN database.
+ * <br>
+ * Tags are checked against an optional filter before any moves are parsed, so rejected games cost no more than a scan over their bytes.
+ * Bytes are copied from the mapping into a small window for each range being read, and moves are resolved from it into packed moves
+ * without creating strings or {@link net.trollyloki.mcchess.game.move.Move} objects.
+ * The stream returned by {@link #games()} splits the file at game boundaries, so it can be parsed in parallel.
+ * <br>
+ * A new game starts at a tag line that follows a blank line, which is how {@link PGNWriter} and most other exporters separate games.
+ * Comments, variations, NAGs and move annotations are skipped.
+ * <br>
+ * By default every move is checked to be legal in a {@link Game} as it is read. Databases that are known to be valid can be
+ * read much faster with {@link #setValidating(boolean)}, which only resolves each move on a bare {@link BitBoard}.
+ */
+public class PGNReader implements Closeable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final long MIN_SPLIT = 1 << 20;
+    private static final int WINDOW_SIZE = 1 << 16;
+    private static final int PAWN = Piece.Type.PAWN.ordinal();
+    private static final boolean[] TOKEN_END = new boolean[256];
+
+    static {
+        for (char c : " \n\r\t{}();$".toCharArray())
+            TOKEN_END[c] = true;
+    }
+
+    /**
+     * A game read from a PGN database.
+     */
+    public static final class Entry {
+
+        private final long offset;
+        private final @NotNull @Unmodifiable Map<String, String> tags;
+        private final int @NotNull [] moves;
+        private final @NotNull String result;
+
+        private Entry(long offset, @NotNull Map<String, String> tags, int @NotNull [] moves, @NotNull String result) {
+            this.offset = offset;
+            this.tags = Collections.unmodifiableMap(tags);
+            this.moves = moves;
+            this.result = result;
+        }
+
+        /**
+         * Gets the byte offset of this game in the file.
+         *
+         * @return offset of the first tag
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the tag pairs of this game, in the order they were read.
+         *
+         * @return tags by name
+         */
+        public @NotNull @Unmodifiable Map<String, String> getTags() {
+            return tags;
+        }
+
+        /**
+         * Gets the value of a tag.
+         *
+         * @param name tag name
+         * @return tag value, or {@code null} if the tag is not present
+         */
+        public @Nullable String getTag(@NotNull String name) {
+            return tags.get(name);
+        }
+
+        /**
+         * Gets the moves of this game.
+         *
+         * @return copy of the packed moves
+         * @see CompactMove
+         */
+        public int @NotNull [] getMoves() {
+            return moves.clone();
+        }
+
+        /**
+         * Gets the result of this game, from its game termination marker or else its {@code Result} tag.
+         *
+         * @return result, {@code "*"} if unknown
+         */
+        public @NotNull String getResult() {
+            return result;
+        }
+
+        /**
+         * Gets the position this game starts from.
+         *
+         * @return FEN
+         */
+        public @NotNull String getInitialFEN() {
+            String fen = tags.get("FEN");
+            return fen != null ? fen : Game.STANDARD_FEN;
+        }
+
+        /**
+         * Replays this game on a board.
+         *
+         * @param board board, which is cleared
+         * @return game
+         */
+        public @NotNull Game toGame(@NotNull Board board) {
+            Game game = Game.fromFEN(getInitialFEN(), board);
+
+            String event = tags.get("Event");
+            if (event != null)
+                game.setEvent(event);
+            String site = tags.get("Site");
+            if (site != null)
+                board.setSite(site);
+            String round = tags.get("Round");
+            if (round != null && !round.isEmpty() && round.chars().allMatch(Character::isDigit))
+                game.setRound(Integer.parseInt(round));
+
+            for (int move : moves)
+                game.replayMove(move);
+            game.adjudicate();
+            return game;
+        }
+
+    }
+
+    private final @NotNull FileChannel channel;
+    private final @NotNull MappedByteBuffer[] chunks;
+    private final long size;
+    private @Nullable Predicate<Map<String, String>> filter;
+    private boolean validating = true;
+    private final @NotNull Cursor cursor;
+
+    private PGNReader(@NotNull FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_MASK + 1));
+        }
+        this.cursor = new Cursor(0, size);
+    }
+
+    /**
+     * Opens a PGN file for reading.
+     * <br>
+     * The file is mapped in chunks of up to 1 GiB, so files of any size can be read.
+     *
+     * @param path file path
+     * @return PGN reader
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static @NotNull PGNReader open(@NotNull Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new PGNReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the filter games must pass to be read. Games that do not pass are skipped without parsing their moves.
+     * <br>
+     * The filter applies to games read after it is set, and may be called from several threads when reading in parallel.
+     *
+     * @param filter predicate on the tags of each game, or {@code null} to read every game
+     */
+    public void setFilter(@Nullable Predicate<Map<String, String>> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets whether moves are checked to be legal as they are read, which they are by default.
+     * <br>
+     * Without validation, no {@link Game} is created: each move is resolved from its SAN on a bare {@link BitBoard},
+     * a candidate piece is only checked for legality when the SAN could name more than one, and the game is not adjudicated.
+     * Malformed movetext and moves that name no piece of their type are still rejected, but other illegal moves may be read
+     * as they are and leave the replayed position wrong, so this is only for databases that are known to be valid.
+     * <br>
+     * The setting applies to games read after it is set.
+     *
+     * @param validating {@code true} to check every move, or {@code false} to trust the file
+     */
+    public void setValidating(boolean validating) {
+        this.validating = validating;
+    }
+
+    /**
+     * Gets the size of the file.
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the next game that passes the filter.
+     *
+     * @return game, or {@code null} if there are no more games
+     * @throws IllegalArgumentException if the game is malformed or has an illegal move
+     */
+    public @Nullable Entry next() {
+        return cursor.read();
+    }
+
+    /**
+     * Streams the games from the current position to the end of the file that pass the filter.
+     * <br>
+     * The stream starts where {@link #next()} would continue, and does not advance it.
+     * Calling {@link Stream#parallel()} parses ranges of the file that end at game boundaries on several threads.
+     *
+     * @return stream of games
+     */
+    public @NotNull Stream<Entry> games() {
+        return StreamSupport.stream(new Cursor(cursor.position, size), false);
+    }
+
+    /**
+     * Releases the file. The mapped memory is freed once it is no longer reachable.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Reads games from a range of the file. A game belongs to the range it starts in.
+     */
+    private final class Cursor implements Spliterator<Entry> {
+
+        private long position;
+        private final long end;
+        private final @NotNull Token token = new Token();
+        private byte @NotNull [] value = new byte[64];
+
+        // position of the game being read when it is not validated
+        private final @NotNull BitBoard board = new BitBoard();
+        private final @NotNull FENCodec codec = new FENCodec();
+        private @NotNull Color color = Color.WHITE;
+        private int castlingRights, enPassantSquare = -1;
+
+        private final byte @NotNull [] window = new byte[WINDOW_SIZE];
+        private long windowStart, windowEnd;
+
+        private Cursor(long position, long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        private byte byteAt(long position) {
+            if (position < windowStart || position >= windowEnd)
+                fill(position);
+            return window[(int) (position - windowStart)];
+        }
+
+        /**
+         * Copies the mapped bytes around a position into the window, keeping a few bytes before it for look-behind.
+         */
+        private void fill(long position) {
+            windowStart = Math.max(0, position - 16);
+            windowEnd = Math.min(size, windowStart + window.length);
+            for (long from = windowStart; from < windowEnd; ) {
+                MappedByteBuffer chunk = chunks[(int) (from >>> CHUNK_SHIFT)];
+                int index = (int) (from & CHUNK_MASK);
+                int length = (int) Math.min(windowEnd - from, chunk.limit() - index);
+                chunk.get(index, window, (int) (from - windowStart), length);
+                from += length;
+            }
+        }
+
+        private boolean isLineStart(long position) {
+            return position == 0 || byteAt(position - 1) == '\n';
+        }
+
+        /**
+         * Checks if a game starts at a position, which is a tag line after a blank line or at the start of the file.
+         */
+        private boolean isGameStart(long position) {
+            if (byteAt(position) != '[')
+                return false;
+            if (position == 0)
+                return true;
+            if (byteAt(position - 1) != '\n')
+                return false;
+            long previous = position - 2;
+            if (previous >= 0 && byteAt(previous) == '\r')
+                previous--;
+            return previous < 0 || byteAt(previous) == '\n';
+        }
+
+        private @Nullable Entry read() {
+            while (true) {
+                while (position < end && !(byteAt(position) == '[' && isLineStart(position)))
+                    position++;
+                if (position >= end)
+                    return null;
+
+                long offset = position;
+                Map<String, String> tags = readTags();
+
+                Predicate<Map<String, String>> filter = PGNReader.this.filter;
+                if (filter != null && !filter.test(tags)) {
+                    skipMovetext();
+                    continue;
+                }
+                return readMovetext(offset, tags);
+            }
+        }
+
+        private @NotNull Map<String, String> readTags() {
+            Map<String, String> tags = new LinkedHashMap<>();
+            while (position < size && byteAt(position) == '[') {
+                long start = ++position;
+                while (position < size && !isWhitespace(byteAt(position)) && byteAt(position) != '"')
+                    position++;
+                String name = new String(bytes(start, position), StandardCharsets.US_ASCII);
+
+                while (position < size && isWhitespace(byteAt(position)))
+                    position++;
+                if (position >= size || byteAt(position) != '"')
+                    throw invalid("tag " + name + " has no value");
+                position++;
+
+                int length = 0;
+                while (true) {
+                    if (position >= size || byteAt(position) == '\n')
+                        throw invalid("tag " + name + " has an unterminated value");
+                    byte b = byteAt(position++);
+                    if (b == '"')
+                        break;
+                    if (b == '\\' && position < size)
+                        b = byteAt(position++);
+                    if (length == value.length)
+                        value = Arrays.copyOf(value, length * 2);
+                    value[length++] = b;
+                }
+                tags.put(name, new String(value, 0, length, StandardCharsets.UTF_8));
+
+                skipLine();
+                while (position < size && isWhitespace(byteAt(position)))
+                    position++;
+            }
+            return tags;
+        }
+
+        private @NotNull Entry readMovetext(long offset, @NotNull Map<String, String> tags) {
+            String fen = tags.get("FEN");
+            Game game = null;
+            try {
+                if (validating)
+                    game = Game.fromFEN(fen != null ? fen : Game.STANDARD_FEN, new BitBoard());
+                else
+                    loadPosition(fen != null ? fen : Game.STANDARD_FEN);
+            } catch (RuntimeException e) {
+                throw invalid("invalid FEN " + fen);
+            }
+
+            int[] moves = new int[128];
+            int count = 0;
+            String result = null;
+
+            while (position < size && result == null) {
+                byte b = byteAt(position);
+                if (isWhitespace(b)) {
+                    position++;
+                } else if (b == '[' && isLineStart(position)) {
+                    break; // the next game has no termination marker
+                } else if (b == '{') {
+                    skipComment();
+                } else if (b == ';' || b == '%' && isLineStart(position)) {
+                    skipLine();
+                } else if (b == '(') {
+                    skipVariation();
+                } else if (b == '$') {
+                    position++;
+                    while (position < size && Character.isDigit(byteAt(position)))
+                        position++;
+                } else if (b == '*') {
+                    position++;
+                    result = "*";
+                } else if (b >= '0' && b <= '9' && !isDigitCastling(position)) {
+                    result = readNumber();
+                } else {
+                    long start = position, tokenEnd = start;
+                    while (tokenEnd < size && !isTokenEnd(byteAt(tokenEnd)))
+                        tokenEnd++;
+                    position = tokenEnd;
+                    while (tokenEnd > start && (byteAt(tokenEnd - 1) == '!' || byteAt(tokenEnd - 1) == '?'))
+                        tokenEnd--;
+
+                    int move;
+                    try {
+                        move = game != null ? CompactMove.fromSAN(token.of(start, tokenEnd), game)
+                                : CompactMove.fromTrustedSAN(token.of(start, tokenEnd), board, color, castlingRights, enPassantSquare);
+                    } catch (IllegalArgumentException e) {
+                        throw invalid(e.getMessage());
+                    }
+                    if (game != null)
+                        game.replayMove(move); // the parser has checked that it is legal
+                    else
+                        play(move);
+
+                    if (count == moves.length)
+                        moves = Arrays.copyOf(moves, count * 2);
+                    moves[count++] = move;
+                }
+            }
+
+            if (result == null)
+                result = tags.getOrDefault("Result", "*");
+            return new Entry(offset, tags, Arrays.copyOf(moves, count), result);
+        }
+
+        /**
+         * Checks if castling written with zeros, {@code 0-0} or {@code 0-0-0}, starts at a position,
+         * rather than a move number or the {@code 0-1} termination marker.
+         */
+        private boolean isDigitCastling(long position) {
+            return position + 2 < size && byteAt(position) == '0' && byteAt(position + 1) == '-' && byteAt(position + 2) == '0';
+        }
+
+        /**
+         * Loads the position a game that is not validated starts from onto the bare board.
+         */
+        private void loadPosition(@NotNull String fen) {
+            codec.parse(fen, board);
+            color = codec.getActiveColor();
+            castlingRights = codec.getCastlingRights();
+            enPassantSquare = codec.getEnPassantSquare();
+        }
+
+        /**
+         * Plays a move on the bare board like {@link Game#replayMove(int)}, keeping only what resolving the next move needs.
+         */
+        private void play(int move) {
+            int from = CompactMove.getFrom(move), to = CompactMove.getTo(move);
+            int piece = board.getPiece(from);
+            switch (CompactMove.getFlag(move)) {
+                case CompactMove.CASTLING -> {
+                    int rank = from & ~7;
+                    boolean queenside = to < from;
+                    board.movePiece(from, to);
+                    board.movePiece(rank + (queenside ? 0 : 7), rank + (queenside ? 3 : 5));
+                }
+                case CompactMove.PROMOTION -> {
+                    board.setPiece(from, -1);
+                    board.setPiece(to, piece - PAWN + CompactMove.getPromotionType(move).ordinal());
+                }
+                case CompactMove.EN_PASSANT -> {
+                    board.setPiece(from & ~7 | to & 7, -1);
+                    board.movePiece(from, to);
+                }
+                default -> board.movePiece(from, to);
+            }
+
+            castlingRights = Game.updateCastlingRights(castlingRights, move);
+            enPassantSquare = piece % 6 == PAWN && Math.abs(to - from) == 16 ? (from + to) >>> 1 : -1;
+            color = color.opposite();
+        }
+
+        /**
+         * Reads a move number, which is skipped, or a game termination marker.
+         *
+         * @return result, or {@code null} if a move number was read
+         */
+        private @Nullable String readNumber() {
+            long start = position, end = start;
+            byte b;
+            while (end < size && !isTokenEnd(b = byteAt(end)) && b != '.')
+                end++;
+            position = end;
+            if (position < size && byteAt(position) == '.') {
+                while (position < size && byteAt(position) == '.')
+                    position++;
+                return null;
+            }
+
+            String token = new String(bytes(start, position), StandardCharsets.US_ASCII);
+            return switch (token) {
+                case "1-0", "0-1", "1/2-1/2" -> token;
+                default -> throw invalid("unexpected token " + token);
+            };
+        }
+
+        private void skipMovetext() {
+            while (position < size) {
+                byte b = byteAt(position);
+                if (b == '[' && isLineStart(position))
+                    return;
+                if (b == '{')
+                    skipComment();
+                else if (b == ';')
+                    skipLine();
+                else
+                    position++;
+            }
+        }
+
+        private void skipComment() {
+            while (position < size && byteAt(position) != '}')
+                position++;
+            position++;
+        }
+
+        private void skipLine() {
+            while (position < size && byteAt(position) != '\n')
+                position++;
+            position++;
+        }
+
+        private void skipVariation() {
+            int depth = 0;
+            while (position < size) {
+                byte b = byteAt(position);
+                if (b == '{') {
+                    skipComment();
+                    continue;
+                } else if (b == ';') {
+                    skipLine();
+                    continue;
+                }
+
+                position++;
+                if (b == '(')
+                    depth++;
+                else if (b == ')' && --depth == 0)
+                    return;
+            }
+        }
+
+        private boolean isTokenEnd(byte b) {
+            return TOKEN_END[b & 0xFF];
+        }
+
+        private byte @NotNull [] bytes(long start, long end) {
+            byte[] bytes = new byte[(int) (end - start)];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = byteAt(start + i);
+            return bytes;
+        }
+
+        private @NotNull IllegalArgumentException invalid(@NotNull String reason) {
+            return new IllegalArgumentException("Invalid PGN at byte " + position + ": " + reason);
+        }
+
+        @Override
+        public boolean tryAdvance(@NotNull Consumer<? super Entry> action) {
+            Entry entry = read();
+            if (entry == null)
+                return false;
+            action.accept(entry);
+            return true;
+        }
+
+        @Override
+        public @Nullable Spliterator<Entry> trySplit() {
+            if (end - position < MIN_SPLIT)
+                return null;
+
+            long split = position + (end - position) / 2;
+            while (split < end && !isGameStart(split))
+                split++;
+            if (split >= end)
+                return null;
+
+            Cursor prefix = new Cursor(position, split);
+            position = split;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - position) >>> 10; // roughly a kilobyte per game
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        /**
+         * A view of the window as characters, reused for every move so that parsing does not allocate.
+         */
+        private final class Token implements CharSequence {
+
+            private int offset;
+            private int length;
+
+            /**
+             * Views a range of the file, moving the window to hold all of it if it does not already.
+             */
+            private @NotNull Token of(long start, long end) {
+                if (end - start > window.length - 16)
+                    throw invalid("token is too long");
+                if (start < windowStart || end > windowEnd)
+                    fill(start);
+                this.offset = (int) (start - windowStart);
+                this.length = (int) (end - start);
+                return this;
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (index < 0 || index >= length)
+                    throw new IndexOutOfBoundsException(index);
+                return (char) (window[offset + index] & 0xFF);
+            }
+
+            @Override
+            public @NotNull CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public @NotNull String toString() {
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++)
+                    chars[i] = charAt(i);
+                return new String(chars);
+            }
+
+        }
+
+    }
+
+}
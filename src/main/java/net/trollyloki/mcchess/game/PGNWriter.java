@@ -0,0 +1,101 @@
+package net.trollyloki.mcchess.game;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams any number of games into one PGN database.
+ * <br>
+ * Each game is written straight to the underlying writer with {@link Game#writePGN(Appendable)} and followed by a blank line,
+ * so only the game being written is ever held in memory. A PGN writer is not thread safe.
+ */
+public class PGNWriter implements Closeable, Flushable {
+
+    private final @NotNull Writer out;
+    private int gameCount = 0;
+
+    /**
+     * Creates a PGN writer.
+     *
+     * @param out writer to write to, which should be buffered
+     */
+    public PGNWriter(@NotNull Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates a PGN writer that writes UTF-8 text.
+     *
+     * @param out stream to write to
+     */
+    public PGNWriter(@NotNull OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Opens a PGN file for writing, creating it if it does not exist.
+     *
+     * @param path   file path
+     * @param append {@code true} to add games to the end of the file, {@code false} to replace its contents
+     * @return PGN writer
+     * @throws IOException if the file cannot be opened
+     */
+    public static @NotNull PGNWriter open(@NotNull Path path, boolean append) throws IOException {
+        return new PGNWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Writes a game.
+     *
+     * @param game game
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(@NotNull Game game) throws IOException {
+        game.writePGN(out);
+        out.write("\n\n");
+        gameCount++;
+    }
+
+    /**
+     * Writes every game in order.
+     *
+     * @param games games, which may be produced lazily
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeAll(@NotNull Iterable<? extends Game> games) throws IOException {
+        for (Game game : games)
+            write(game);
+    }
+
+    /**
+     * Gets the number of games written so far.
+     *
+     * @return number of games
+     */
+    public int getGameCount() {
+        return gameCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,22 @@
+package net.trollyloki.mcchess.game;
+
+import org.jetbrains.annotations.NotNull;
+
+public enum Termination {
+    CHECKMATE("checkmate"),
+    STALEMATE("stalemate"),
+    THREEFOLD_REPETITION("threefold repetition"),
+    FIFTY_MOVE_RULE("fifty-move rule"),
+    INSUFFICIENT_MATERIAL("insufficient material");
+
+    private final @NotNull String description;
+
+    Termination(@NotNull String description) {
+        this.description = description;
+    }
+
+    public @NotNull String getDescription() {
+        return description;
+    }
+
+}
@@ -39,14 +39,20 @@ public class CastleMove implements Move {
     public void play(@NotNull Board board) {
         int rank = color.getBackRank();
         if (queenside) {
-            board.movePiece(new Square(4, rank), new Square(2, rank)); // king
-            board.movePiece(new Square(0, rank), new Square(3, rank)); // rook
+            board.movePiece(Square.of(4, rank), Square.of(2, rank)); // king
+            board.movePiece(Square.of(0, rank), Square.of(3, rank)); // rook
         } else {
-            board.movePiece(new Square(4, rank), new Square(6, rank)); // king
-            board.movePiece(new Square(7, rank), new Square(5, rank)); // rook
+            board.movePiece(Square.of(4, rank), Square.of(6, rank)); // king
+            board.movePiece(Square.of(7, rank), Square.of(5, rank)); // rook
         }
     }
 
+    @Override
+    public int toCompact() {
+        int rank = color.getBackRank() << 3;
+        return CompactMove.of(rank + 4, rank + (queenside ? 2 : 6), CompactMove.CASTLING);
+    }
+
     @Override
     public @NotNull String toUCI() {
         return switch (color) {
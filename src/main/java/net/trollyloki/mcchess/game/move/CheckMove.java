@@ -31,6 +31,11 @@ public class CheckMove implements Move {
         move.play(board);
     }
 
+    @Override
+    public int toCompact() {
+        return move.toCompact();
+    }
+
     @Override
     public @NotNull String toUCI() {
         return move.toUCI();
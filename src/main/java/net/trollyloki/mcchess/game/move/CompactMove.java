@@ -0,0 +1,149 @@
+package net.trollyloki.mcchess.game.move;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.board.Square;
+import net.trollyloki.mcchess.game.Game;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Static helpers for moves packed into 16 bits.
+ * <br>
+ * Bits 0-5 hold the from square index, bits 6-11 the to square index, bits 12-13 the promotion type
+ * and bits 14-15 the move flag. Castling moves go from the king's square to its destination.
+ * Moves packed by {@link Move#toCompact()} flag en passant captures as {@link #NORMAL}, which unpacks
+ * to the same move because a pawn changing file is always a capture.
+ */
+public final class CompactMove {
+
+    private CompactMove() {
+    }
+
+    public static final int NORMAL = 0, PROMOTION = 1 << 14, EN_PASSANT = 2 << 14, CASTLING = 3 << 14;
+    private static final int FLAG_MASK = 3 << 14;
+
+    private static final Piece.Type[] PROMOTION_TYPES = {
+            Piece.Type.KNIGHT, Piece.Type.BISHOP, Piece.Type.ROOK, Piece.Type.QUEEN
+    };
+
+    /**
+     * Packs a move.
+     *
+     * @param from from square index
+     * @param to   to square index
+     * @param flag {@link #NORMAL}, {@link #EN_PASSANT} or {@link #CASTLING}
+     * @return packed move
+     */
+    public static int of(int from, int to, int flag) {
+        return from | to << 6 | flag;
+    }
+
+    /**
+     * Packs a promotion move.
+     *
+     * @param from          from square index
+     * @param to            to square index
+     * @param promotionType type to promote to, a knight, bishop, rook or queen
+     * @return packed move
+     */
+    public static int promotion(int from, int to, @NotNull Piece.Type promotionType) {
+        int index = switch (promotionType) {
+            case KNIGHT -> 0;
+            case BISHOP -> 1;
+            case ROOK -> 2;
+            case QUEEN -> 3;
+            default -> throw new IllegalArgumentException("Cannot promote to " + promotionType);
+        };
+        return from | to << 6 | index << 12 | PROMOTION;
+    }
+
+    public static int getFrom(int move) {
+        return move & 63;
+    }
+
+    public static int getTo(int move) {
+        return move >>> 6 & 63;
+    }
+
+    public static int getFlag(int move) {
+        return move & FLAG_MASK;
+    }
+
+    public static @NotNull Piece.Type getPromotionType(int move) {
+        return PROMOTION_TYPES[move >>> 12 & 3];
+    }
+
+    /**
+     * Gets the string used to communicate a packed move over UCI.
+     *
+     * @param move packed move
+     * @return UCI LAN
+     */
+    public static @NotNull String toUCI(int move) {
+        String uci = Square.of(getFrom(move)).toString() + Square.of(getTo(move));
+        if (getFlag(move) == PROMOTION)
+            uci += Character.toLowerCase(getPromotionType(move).getLetter());
+        return uci;
+    }
+
+    /**
+     * Parses a move from SAN in the context of a game, without creating a {@link Move}.
+     * <br>
+     * Any check or checkmate postfix is ignored.
+     *
+     * @param san  SAN, which may be a view over a larger buffer
+     * @param game game, for context
+     * @return packed move
+     * @throws IllegalArgumentException if the SAN is malformed, ambiguous or not a legal move
+     */
+    public static int fromSAN(@NotNull CharSequence san, @NotNull Game game) {
+        return SanParser.parsePacked(san, game);
+    }
+
+    /**
+     * Parses a move from SAN that is known to be legal, in a position without a game.
+     * <br>
+     * Candidate moves are only checked for legality when the SAN could describe more than one of them, and a move that names
+     * its origin square is taken as it is, so this is faster than {@link #fromSAN(CharSequence, Game)} but may return an
+     * illegal move instead of rejecting it.
+     * Any check or checkmate postfix is ignored.
+     *
+     * @param san             SAN, which may be a view over a larger buffer
+     * @param position        position the move is played from
+     * @param color           color to move
+     * @param castlingRights  castling rights bitmask
+     * @param enPassantSquare en passant target square index, or {@code -1} if there is none
+     * @return packed move
+     * @throws IllegalArgumentException if the SAN is malformed, ambiguous or names no piece of its type that could make it
+     */
+    public static int fromTrustedSAN(@NotNull CharSequence san, @NotNull BitBoard position, @NotNull Color color,
+                                     int castlingRights, int enPassantSquare) {
+        return SanParser.parsePacked(san, position, color, castlingRights, enPassantSquare, true);
+    }
+
+    /**
+     * Unpacks a move in the context of a position.
+     *
+     * @param move     packed move
+     * @param position position the move is played from
+     * @return move
+     */
+    public static @NotNull Move toMove(int move, @NotNull BitBoard position) {
+        int from = getFrom(move), to = getTo(move);
+        int index = position.getPiece(from);
+        if (index < 0)
+            throw new IllegalArgumentException("No piece on " + Square.of(from));
+        Piece piece = Piece.of(index);
+
+        return switch (getFlag(move)) {
+            case CASTLING -> new CastleMove(piece.getColor(), to < from);
+            case EN_PASSANT -> new NormalMove(piece.getType(), Square.of(from), Square.of(to), true);
+            case PROMOTION -> new PromotionMove(piece.getType(), Square.of(from), Square.of(to),
+                    position.getPiece(to) >= 0, getPromotionType(move));
+            default -> new NormalMove(piece.getType(), Square.of(from), Square.of(to), position.getPiece(to) >= 0
+                    || piece.getType() == Piece.Type.PAWN && (from & 7) != (to & 7));
+        };
+    }
+
+}
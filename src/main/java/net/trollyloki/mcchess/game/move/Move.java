@@ -7,9 +7,7 @@ import net.trollyloki.mcchess.board.Square;
 import net.trollyloki.mcchess.game.Game;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashSet;
 import java.util.Optional;
-import java.util.Set;
 
 public interface Move {
 
@@ -34,6 +32,14 @@ public interface Move {
      */
     void play(@NotNull Board board);
 
+    /**
+     * Packs this move into 16 bits.
+     *
+     * @return packed move
+     * @see CompactMove
+     */
+    int toCompact();
+
     /**
      * Gets the string used to communicate this move over UCI.
      *
@@ -54,27 +60,34 @@ public interface Move {
      * @param uciMove UCI LAN
      * @param board   board, for context
      * @return move
+     * @throws IllegalArgumentException if the move is malformed or there is no piece to move
      */
     static @NotNull Move fromUCI(@NotNull String uciMove, @NotNull Board board) {
-        switch (uciMove) {
-            case "e1g1" -> {
-                return new CastleMove(Color.WHITE, false);
-            }
-            case "e1c1" -> {
-                return new CastleMove(Color.WHITE, true);
-            }
-            case "e8g8" -> {
-                return new CastleMove(Color.BLACK, false);
-            }
-            case "e8c8" -> {
-                return new CastleMove(Color.BLACK, true);
+        if (uciMove.length() != 4 && uciMove.length() != 5)
+            throw new IllegalArgumentException("Invalid UCI move " + uciMove);
+
+        Square from = Square.of(uciMove.charAt(0) - 'a', uciMove.charAt(1) - '1');
+        Piece.Type pieceType = board.getPieceAt(from).map(Piece::getType)
+                .orElseThrow(() -> new IllegalArgumentException("No piece on " + from));
+
+        if (pieceType == Piece.Type.KING) {
+            switch (uciMove) {
+                case "e1g1" -> {
+                    return new CastleMove(Color.WHITE, false);
+                }
+                case "e1c1" -> {
+                    return new CastleMove(Color.WHITE, true);
+                }
+                case "e8g8" -> {
+                    return new CastleMove(Color.BLACK, false);
+                }
+                case "e8c8" -> {
+                    return new CastleMove(Color.BLACK, true);
+                }
             }
         }
 
-        Square from = Square.fromString(uciMove.substring(0, 2));
-        Piece.Type pieceType = board.getPieceAt(from).map(Piece::getType).orElseThrow();
-
-        Square to = Square.fromString(uciMove.substring(2, 4));
+        Square to = Square.of(uciMove.charAt(2) - 'a', uciMove.charAt(3) - '1');
         boolean capture = board.getPieceAt(to).isPresent()
                 || pieceType == Piece.Type.PAWN && from.getFile() != to.getFile();
 
@@ -90,130 +103,10 @@ public interface Move {
      * @param san  SAN
      * @param game game, for context
      * @return move
+     * @throws IllegalArgumentException if the SAN is malformed, ambiguous or not a legal move
      */
     static @NotNull Move fromSAN(@NotNull String san, @NotNull Game game) {
-        switch (san) {
-            case "O-O" -> {
-                return new CastleMove(game.getActiveColor(), false);
-            }
-            case "O-O-O" -> {
-                return new CastleMove(game.getActiveColor(), true);
-            }
-        }
-
-        Piece.Type pieceType;
-        try {
-            pieceType = Piece.Type.fromLetter(san.charAt(0));
-            san = san.substring(1);
-        } catch (IllegalArgumentException e) {
-            pieceType = Piece.Type.PAWN;
-        }
-
-        CheckStatus checkStatus = switch (san.charAt(san.length() - 1)) {
-            case '+' -> CheckStatus.CHECK;
-            case '#' -> CheckStatus.CHECKMATE;
-            default -> null;
-        };
-        if (checkStatus != null)
-            san = san.substring(0, san.length() - 1);
-
-        Piece.Type promotionType = null;
-        if (san.charAt(san.length() - 2) == '=') {
-            promotionType = Piece.Type.fromLetter(san.charAt(san.length() - 1));
-            san = san.substring(0, san.length() - 2);
-        }
-
-        Square to = Square.fromString(san.substring(san.length() - 2));
-        san = san.substring(0, san.length() - 2);
-
-        boolean capture = false;
-        if (san.charAt(san.length() - 1) == 'x') {
-            capture = true;
-            san = san.substring(0, san.length() - 1);
-        }
-
-        Square from = null;
-        if (san.length() == 2) {
-            from = Square.fromString(san);
-        } else {
-
-            Optional<Integer> file = Optional.empty();
-            Optional<Integer> rank = Optional.empty();
-            if (san.length() == 1) {
-                file = Optional.of(san.charAt(0) - 'a').filter(Board::inBounds);
-                if (file.isEmpty())
-                    rank = Optional.of(san.charAt(0) - '1').filter(Board::inBounds);
-            }
-
-            Set<Square> candidates = new HashSet<>(64);
-            if (file.isPresent()) {
-                for (int r = 0; r < 8; r++)
-                    candidates.add(new Square(file.get(), r));
-            } else if (rank.isPresent()) {
-                for (int f = 0; f < 8; f++)
-                    candidates.add(new Square(f, rank.get()));
-            } else {
-                for (int f = 0; f < 8; f++)
-                    for (int r = 0; r < 8; r++)
-                        candidates.add(new Square(f, r));
-            }
-
-            Piece piece = new Piece(game.getActiveColor(), pieceType);
-            candidates.removeIf(square -> !game.getBoard().isPieceAt(square, piece));
-
-            if (candidates.size() == 1) {
-                from = candidates.stream().findAny().get();
-            } else {
-                for (Square candidate : candidates) {
-
-                    int fileDiff = to.getFile() - candidate.getFile();
-                    int rankDiff = to.getRank() - candidate.getRank();
-                    int absFileDiff = Math.abs(fileDiff);
-                    int absRankDiff = Math.abs(rankDiff);
-
-                    if (pieceType == Piece.Type.ROOK || pieceType == Piece.Type.QUEEN) {
-                        if (fileDiff == 0 && game.getBoard().isFileOpen(candidate.getFile(), candidate.getRank(), to.getRank())
-                                || rankDiff == 0 && game.getBoard().isRankOpen(candidate.getRank(), candidate.getFile(), to.getFile())) {
-                            from = candidate;
-                            break;
-                        }
-                    }
-
-                    if (pieceType == Piece.Type.BISHOP || pieceType == Piece.Type.QUEEN) {
-                        if (absFileDiff == absRankDiff && game.getBoard().isDiagonalOpen(candidate.getFile(), candidate.getRank(), to.getFile(), to.getRank())) {
-                            from = candidate;
-                            break;
-                        }
-                    } else if (pieceType == Piece.Type.KNIGHT) {
-                        if (absFileDiff == 2 && absRankDiff == 1 || absFileDiff == 1 && absRankDiff == 2) {
-                            from = candidate;
-                            break;
-                        }
-                    } else if (pieceType == Piece.Type.KING) {
-                        if (absFileDiff <= 1 && absRankDiff <= 1) {
-                            from = candidate;
-                            break;
-                        }
-                    } else if (pieceType == Piece.Type.PAWN) {
-                        int pawnDirection = game.getActiveColor().getPawnDirection();
-                        int pawnStartRank = game.getActiveColor().getBackRank() + pawnDirection;
-                        if (absFileDiff == (capture ? 1 : 0) && (rankDiff == pawnDirection || !capture && rankDiff == 2 * pawnDirection && candidate.getRank() == pawnStartRank)) {
-                            from = candidate;
-                            break;
-                        }
-                    }
-
-                }
-                if (from == null)
-                    throw new IllegalArgumentException("No valid piece for " + san);
-            }
-
-        }
-
-        Move move = promotionType != null
-                ? new PromotionMove(pieceType, from, to, capture, promotionType)
-                : new NormalMove(pieceType, from, to, capture);
-        return checkStatus != null ? new CheckMove(move, checkStatus) : move;
+        return SanParser.parse(san, game);
     }
 
 }
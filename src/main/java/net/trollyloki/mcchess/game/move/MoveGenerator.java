@@ -0,0 +1,457 @@
+package net.trollyloki.mcchess.game.move;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.Attacks;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.game.Game;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates legal moves from bitboards.
+ * <br>
+ * Moves are written as {@link CompactMove packed moves} into arrays supplied by the caller, so generating never allocates.
+ * Pins and checks are resolved with masks up front, so every generated move is legal without having to be tried.
+ */
+public final class MoveGenerator {
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * An array of this length can hold the moves of any position.
+     */
+    public static final int MAX_MOVES = 256;
+
+    private static final int KING = Piece.Type.KING.ordinal(), QUEEN = Piece.Type.QUEEN.ordinal(),
+            ROOK = Piece.Type.ROOK.ordinal(), BISHOP = Piece.Type.BISHOP.ordinal(),
+            KNIGHT = Piece.Type.KNIGHT.ordinal(), PAWN = Piece.Type.PAWN.ordinal();
+
+    private static final long FIRST_RANK = 0xFFL, LAST_RANK = 0xFF00000000000000L;
+
+    /**
+     * Generates all legal moves in the current position of a game.
+     *
+     * @param game  game
+     * @param moves array to write packed moves to, at least {@link #MAX_MOVES} long
+     * @return number of moves written
+     */
+    public static int generate(@NotNull Game game, int @NotNull [] moves) {
+        return generate(game.getPosition(), game.getActiveColor(), game.getCastlingRights(), game.getEnPassantIndex(), moves);
+    }
+
+    /**
+     * Generates all legal moves in the current position of a game.
+     *
+     * @param game game
+     * @return list of moves
+     */
+    public static @NotNull List<Move> legalMoves(@NotNull Game game) {
+        int[] moves = new int[MAX_MOVES];
+        int count = generate(game, moves);
+
+        List<Move> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            list.add(CompactMove.toMove(moves[i], game.getPosition()));
+        return list;
+    }
+
+    /**
+     * Generates all legal moves in a position.
+     *
+     * @param position        pieces
+     * @param color           color to move
+     * @param castlingRights  castling rights bitmask, as in {@link Game#getCastlingRights()}
+     * @param enPassantSquare en passant target square index, or {@code -1} if there is none
+     * @param moves           array to write packed moves to, at least {@link #MAX_MOVES} long
+     * @return number of moves written
+     */
+    public static int generate(@NotNull BitBoard position, @NotNull Color color, int castlingRights, int enPassantSquare, int @NotNull [] moves) {
+        Color opponent = color.opposite();
+        int us = color.ordinal() * 6, them = opponent.ordinal() * 6;
+
+        long ours = position.getOccupied(color), theirs = position.getOccupied(opponent);
+        long occupied = ours | theirs;
+
+        long kingBit = position.getPieces(us + KING);
+        if (kingBit == 0)
+            return 0;
+        int king = Long.numberOfTrailingZeros(kingBit);
+
+        int count = 0;
+
+        long occupiedWithoutKing = occupied ^ kingBit;
+        for (long targets = Attacks.king(king) & ~ours; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if (position.getAttackers(to, opponent, occupiedWithoutKing) == 0)
+                moves[count++] = CompactMove.of(king, to, CompactMove.NORMAL);
+        }
+
+        long checkers = position.getAttackers(king, opponent);
+        if ((checkers & checkers - 1) != 0)
+            return count; // only the king can escape a double check
+
+        long checkMask = checkers == 0 ? -1L : checkers | Attacks.between(king, Long.numberOfTrailingZeros(checkers));
+
+        long theirRooks = position.getPieces(them + ROOK) | position.getPieces(them + QUEEN);
+        long theirBishops = position.getPieces(them + BISHOP) | position.getPieces(them + QUEEN);
+        long pinned = getPinned(king, ours, occupied,
+                Attacks.rook(king, theirs) & theirRooks | Attacks.bishop(king, theirs) & theirBishops);
+
+        long targets = ~ours & checkMask;
+
+        for (long pieces = position.getPieces(us + KNIGHT) & ~pinned; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            count = add(from, Attacks.knight(from) & targets, moves, count);
+        }
+
+        for (long pieces = position.getPieces(us + BISHOP) | position.getPieces(us + QUEEN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long attacks = Attacks.bishop(from, occupied) & targets;
+            if ((pinned >>> from & 1) != 0)
+                attacks &= Attacks.line(king, from);
+            count = add(from, attacks, moves, count);
+        }
+
+        for (long pieces = position.getPieces(us + ROOK) | position.getPieces(us + QUEEN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long attacks = Attacks.rook(from, occupied) & targets;
+            if ((pinned >>> from & 1) != 0)
+                attacks &= Attacks.line(king, from);
+            count = add(from, attacks, moves, count);
+        }
+
+        int forward = color.getPawnDirection() * 8;
+        int startRank = color.getBackRank() + color.getPawnDirection();
+        for (long pieces = position.getPieces(us + PAWN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+
+            long allowed = checkMask;
+            if ((pinned >>> from & 1) != 0)
+                allowed &= Attacks.line(king, from);
+
+            int to = from + forward;
+            if ((occupied >>> to & 1) == 0) {
+                if ((allowed >>> to & 1) != 0)
+                    count = addPawn(from, to, moves, count);
+
+                int doubleTo = to + forward;
+                if (from >>> 3 == startRank && (occupied >>> doubleTo & 1) == 0 && (allowed >>> doubleTo & 1) != 0)
+                    moves[count++] = CompactMove.of(from, doubleTo, CompactMove.NORMAL);
+            }
+
+            for (long captures = Attacks.pawn(color, from) & theirs & allowed; captures != 0; captures &= captures - 1)
+                count = addPawn(from, Long.numberOfTrailingZeros(captures), moves, count);
+
+            if (enPassantSquare >= 0 && (Attacks.pawn(color, from) >>> enPassantSquare & 1) != 0
+                    && isEnPassantLegal(position, color, king, from, enPassantSquare, occupied, theirRooks, theirBishops))
+                moves[count++] = CompactMove.of(from, enPassantSquare, CompactMove.EN_PASSANT);
+        }
+
+        if (checkers == 0 && king == (color.getBackRank() << 3 | 4)) {
+            int rank = color.getBackRank() << 3;
+            long rooks = position.getPieces(us + ROOK);
+
+            if ((castlingRights & 1 << (color.ordinal() << 1)) != 0 && (rooks >>> (rank + 7) & 1) != 0
+                    && (Attacks.between(king, rank + 7) & occupied) == 0
+                    && position.getAttackers(rank + 5, opponent) == 0
+                    && position.getAttackers(rank + 6, opponent) == 0)
+                moves[count++] = CompactMove.of(king, rank + 6, CompactMove.CASTLING);
+
+            if ((castlingRights & 1 << (color.ordinal() << 1 | 1)) != 0 && (rooks >>> rank & 1) != 0
+                    && (Attacks.between(king, rank) & occupied) == 0
+                    && position.getAttackers(rank + 3, opponent) == 0
+                    && position.getAttackers(rank + 2, opponent) == 0)
+                moves[count++] = CompactMove.of(king, rank + 2, CompactMove.CASTLING);
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks if the active color of a game has any legal move, stopping at the first one found.
+     *
+     * @param game game
+     * @return {@code true} if there is a legal move, or {@code false} if the game is over by checkmate or stalemate
+     */
+    public static boolean hasLegalMoves(@NotNull Game game) {
+        return hasLegalMoves(game.getPosition(), game.getActiveColor(), game.getEnPassantIndex());
+    }
+
+    /**
+     * Checks if a color has any legal move, stopping at the first one found.
+     * <br>
+     * Castling is never needed to answer this, because a king that can castle can also step towards the rook.
+     *
+     * @param position        pieces
+     * @param color           color to move
+     * @param enPassantSquare en passant target square index, or {@code -1} if there is none
+     * @return {@code true} if there is a legal move, otherwise {@code false}
+     */
+    public static boolean hasLegalMoves(@NotNull BitBoard position, @NotNull Color color, int enPassantSquare) {
+        Color opponent = color.opposite();
+        int us = color.ordinal() * 6, them = opponent.ordinal() * 6;
+
+        long ours = position.getOccupied(color), theirs = position.getOccupied(opponent);
+        long occupied = ours | theirs;
+
+        long kingBit = position.getPieces(us + KING);
+        if (kingBit == 0)
+            return false;
+        int king = Long.numberOfTrailingZeros(kingBit);
+
+        long occupiedWithoutKing = occupied ^ kingBit;
+        for (long targets = Attacks.king(king) & ~ours; targets != 0; targets &= targets - 1) {
+            if (position.getAttackers(Long.numberOfTrailingZeros(targets), opponent, occupiedWithoutKing) == 0)
+                return true;
+        }
+
+        long checkers = position.getAttackers(king, opponent);
+        if ((checkers & checkers - 1) != 0)
+            return false;
+
+        long checkMask = checkers == 0 ? -1L : checkers | Attacks.between(king, Long.numberOfTrailingZeros(checkers));
+
+        long theirRooks = position.getPieces(them + ROOK) | position.getPieces(them + QUEEN);
+        long theirBishops = position.getPieces(them + BISHOP) | position.getPieces(them + QUEEN);
+        long pinned = getPinned(king, ours, occupied,
+                Attacks.rook(king, theirs) & theirRooks | Attacks.bishop(king, theirs) & theirBishops);
+
+        long targets = ~ours & checkMask;
+
+        for (long pieces = position.getPieces(us + KNIGHT) & ~pinned; pieces != 0; pieces &= pieces - 1) {
+            if ((Attacks.knight(Long.numberOfTrailingZeros(pieces)) & targets) != 0)
+                return true;
+        }
+
+        for (long pieces = position.getPieces(us + BISHOP) | position.getPieces(us + QUEEN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long attacks = Attacks.bishop(from, occupied) & targets;
+            if ((pinned >>> from & 1) != 0)
+                attacks &= Attacks.line(king, from);
+            if (attacks != 0)
+                return true;
+        }
+
+        for (long pieces = position.getPieces(us + ROOK) | position.getPieces(us + QUEEN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long attacks = Attacks.rook(from, occupied) & targets;
+            if ((pinned >>> from & 1) != 0)
+                attacks &= Attacks.line(king, from);
+            if (attacks != 0)
+                return true;
+        }
+
+        int forward = color.getPawnDirection() * 8;
+        int startRank = color.getBackRank() + color.getPawnDirection();
+        for (long pieces = position.getPieces(us + PAWN); pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+
+            long allowed = checkMask;
+            if ((pinned >>> from & 1) != 0)
+                allowed &= Attacks.line(king, from);
+
+            int to = from + forward;
+            if ((occupied >>> to & 1) == 0) {
+                if ((allowed >>> to & 1) != 0)
+                    return true;
+
+                int doubleTo = to + forward;
+                if (from >>> 3 == startRank && (occupied >>> doubleTo & 1) == 0 && (allowed >>> doubleTo & 1) != 0)
+                    return true;
+            }
+
+            if ((Attacks.pawn(color, from) & theirs & allowed) != 0)
+                return true;
+
+            if (enPassantSquare >= 0 && (Attacks.pawn(color, from) >>> enPassantSquare & 1) != 0
+                    && isEnPassantLegal(position, color, king, from, enPassantSquare, occupied, theirRooks, theirBishops))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a packed move is legal in the current position of a game.
+     *
+     * @param game game
+     * @param move packed move
+     * @return {@code true} if the move is legal, otherwise {@code false}
+     */
+    public static boolean isLegal(@NotNull Game game, int move) {
+        return isLegal(game.getPosition(), game.getActiveColor(), game.getCastlingRights(), game.getEnPassantIndex(), move);
+    }
+
+    /**
+     * Checks if a packed move is legal in a position, without generating any other moves.
+     * <br>
+     * The move is checked against the attacks of the piece it moves, then against the same pin and check masks
+     * {@link #generate(BitBoard, Color, int, int, int[])} uses, so this takes constant time.
+     * A pawn capturing onto the en passant target square is accepted with either a normal or an en passant flag.
+     *
+     * @param position        pieces
+     * @param color           color to move
+     * @param castlingRights  castling rights bitmask, as in {@link Game#getCastlingRights()}
+     * @param enPassantSquare en passant target square index, or {@code -1} if there is none
+     * @param move            packed move
+     * @return {@code true} if the move is legal, otherwise {@code false}
+     */
+    public static boolean isLegal(@NotNull BitBoard position, @NotNull Color color, int castlingRights, int enPassantSquare, int move) {
+        int from = CompactMove.getFrom(move), to = CompactMove.getTo(move), flag = CompactMove.getFlag(move);
+        if (move >>> 16 != 0 || flag != CompactMove.PROMOTION && (move >>> 12 & 3) != 0)
+            return false; // not packed by CompactMove
+
+        Color opponent = color.opposite();
+        int us = color.ordinal() * 6, them = opponent.ordinal() * 6;
+
+        long ours = position.getOccupied(color), theirs = position.getOccupied(opponent);
+        long occupied = ours | theirs;
+        if ((ours >>> from & 1) == 0 || (ours >>> to & 1) != 0)
+            return false;
+
+        long kingBit = position.getPieces(us + KING);
+        if (kingBit == 0)
+            return false;
+        int king = Long.numberOfTrailingZeros(kingBit);
+        int type = position.getPiece(from) - us;
+
+        if (flag == CompactMove.CASTLING)
+            return type == KING && isCastlingLegal(position, color, castlingRights, king, to, occupied);
+
+        if (type == KING)
+            return flag == CompactMove.NORMAL && (Attacks.king(king) >>> to & 1) != 0
+                    && position.getAttackers(to, opponent, occupied ^ kingBit) == 0;
+
+        long targets;
+        if (type == PAWN) {
+            boolean promotes = (1L << to & (FIRST_RANK | LAST_RANK)) != 0;
+            if (promotes != (flag == CompactMove.PROMOTION))
+                return false;
+
+            long theirRooks = position.getPieces(them + ROOK) | position.getPieces(them + QUEEN);
+            long theirBishops = position.getPieces(them + BISHOP) | position.getPieces(them + QUEEN);
+            if (to == enPassantSquare && (flag == CompactMove.NORMAL || flag == CompactMove.EN_PASSANT)
+                    && (Attacks.pawn(color, from) >>> to & 1) != 0)
+                return isEnPassantLegal(position, color, king, from, to, occupied, theirRooks, theirBishops);
+            if (flag == CompactMove.EN_PASSANT)
+                return false;
+
+            int forward = color.getPawnDirection() * 8;
+            targets = Attacks.pawn(color, from) & theirs;
+            if ((occupied >>> (from + forward) & 1) == 0) {
+                targets |= 1L << (from + forward);
+                if (from >>> 3 == color.getBackRank() + color.getPawnDirection() && (occupied >>> (from + 2 * forward) & 1) == 0)
+                    targets |= 1L << (from + 2 * forward);
+            }
+        } else {
+            if (flag != CompactMove.NORMAL)
+                return false;
+            targets = type == KNIGHT ? Attacks.knight(from)
+                    : type == BISHOP ? Attacks.bishop(from, occupied)
+                    : type == ROOK ? Attacks.rook(from, occupied)
+                    : Attacks.queen(from, occupied);
+        }
+        if ((targets >>> to & 1) == 0)
+            return false;
+
+        long checkers = position.getAttackers(king, opponent);
+        if (checkers != 0) {
+            if ((checkers & checkers - 1) != 0)
+                return false; // only the king can escape a double check
+            long checkMask = checkers | Attacks.between(king, Long.numberOfTrailingZeros(checkers));
+            if ((checkMask >>> to & 1) == 0)
+                return false;
+        }
+
+        long line = Attacks.line(king, from);
+        if (line == 0 || (line >>> to & 1) != 0)
+            return true; // moving along the line to the king cannot expose it
+
+        long snipers = (Attacks.rook(king, theirs) & (position.getPieces(them + ROOK) | position.getPieces(them + QUEEN))
+                | Attacks.bishop(king, theirs) & (position.getPieces(them + BISHOP) | position.getPieces(them + QUEEN))) & line;
+        return (getPinned(king, ours, occupied, snipers) >>> from & 1) == 0;
+    }
+
+    /**
+     * Checks if the king can castle to a square: the right must remain, the rook must be home,
+     * the squares between them must be empty and the king must not be in, pass through or land in check.
+     */
+    private static boolean isCastlingLegal(@NotNull BitBoard position, @NotNull Color color, int castlingRights,
+                                           int king, int to, long occupied) {
+        int rank = color.getBackRank() << 3;
+        if (king != (rank | 4) || to != rank + 6 && to != rank + 2)
+            return false;
+
+        boolean queenside = to < king;
+        int rook = queenside ? rank : rank + 7;
+        if ((castlingRights & Game.castlingRight(color, queenside)) == 0
+                || (position.getPieces(color, Piece.Type.ROOK) >>> rook & 1) == 0
+                || (Attacks.between(king, rook) & occupied) != 0)
+            return false;
+
+        Color opponent = color.opposite();
+        return position.getAttackers(king, opponent) == 0
+                && position.getAttackers((king + to) >>> 1, opponent) == 0
+                && position.getAttackers(to, opponent) == 0;
+    }
+
+    /**
+     * Finds the pieces that are pinned to their king.
+     *
+     * @param king     king square index
+     * @param ours     squares occupied by the king's side
+     * @param occupied squares occupied by either side
+     * @param snipers  enemy sliders that would attack the king if only enemy pieces were on the board
+     * @return bitmask of pinned pieces
+     */
+    static long getPinned(int king, long ours, long occupied, long snipers) {
+        long pinned = 0;
+        for (; snipers != 0; snipers &= snipers - 1) {
+            long blockers = Attacks.between(king, Long.numberOfTrailingZeros(snipers)) & occupied;
+            if (blockers != 0 && (blockers & blockers - 1) == 0)
+                pinned |= blockers & ours;
+        }
+        return pinned;
+    }
+
+    /**
+     * Checks if an en passant capture would leave the king safe, by removing both pawns from the board.
+     * This catches the rare case of both pawns shielding the king along a rank.
+     */
+    static boolean isEnPassantLegal(@NotNull BitBoard position, @NotNull Color color, int king, int from, int to,
+                                    long occupied, long theirRooks, long theirBishops) {
+        int captured = to - color.getPawnDirection() * 8;
+        long theirPawns = position.getPieces(color.opposite(), Piece.Type.PAWN);
+        if ((theirPawns >>> captured & 1) == 0 || (occupied >>> to & 1) != 0)
+            return false;
+
+        long after = occupied ^ (1L << from | 1L << captured) | 1L << to;
+        return (Attacks.rook(king, after) & theirRooks) == 0
+                && (Attacks.bishop(king, after) & theirBishops) == 0
+                && (Attacks.knight(king) & position.getPieces(color.opposite(), Piece.Type.KNIGHT)) == 0
+                && (Attacks.pawn(color, king) & theirPawns & ~(1L << captured)) == 0;
+    }
+
+    private static int add(int from, long targets, int[] moves, int count) {
+        for (; targets != 0; targets &= targets - 1)
+            moves[count++] = CompactMove.of(from, Long.numberOfTrailingZeros(targets), CompactMove.NORMAL);
+        return count;
+    }
+
+    private static int addPawn(int from, int to, int[] moves, int count) {
+        if ((1L << to & (FIRST_RANK | LAST_RANK)) != 0) {
+            moves[count++] = CompactMove.promotion(from, to, Piece.Type.QUEEN);
+            moves[count++] = CompactMove.promotion(from, to, Piece.Type.KNIGHT);
+            moves[count++] = CompactMove.promotion(from, to, Piece.Type.ROOK);
+            moves[count++] = CompactMove.promotion(from, to, Piece.Type.BISHOP);
+        } else {
+            moves[count++] = CompactMove.of(from, to, CompactMove.NORMAL);
+        }
+        return count;
+    }
+
+}
@@ -44,16 +44,22 @@ public class NormalMove implements Move {
     @Override
     public @NotNull Optional<Square> getEnPassantSquare() {
         if (pieceType == Piece.Type.PAWN && Math.abs(to.getRank() - from.getRank()) == 2)
-            return Optional.of(new Square(to.getFile(), (from.getRank() + to.getRank()) / 2));
+            return Optional.of(Square.of(to.getFile(), (from.getRank() + to.getRank()) / 2));
         else
             return Optional.empty();
     }
 
     @Override
     public void play(@NotNull Board board) {
+        boolean enPassant = pieceType == Piece.Type.PAWN && capture && board.getPieceAt(to).isEmpty();
         board.movePiece(from, to);
-        if (pieceType == Piece.Type.PAWN && capture && board.getPieceAt(to).isEmpty())
-            board.setPieceAt(new Square(to.getFile(), from.getRank()), null);
+        if (enPassant)
+            board.setPieceAt(Square.of(to.getFile(), from.getRank()), null);
+    }
+
+    @Override
+    public int toCompact() {
+        return CompactMove.of(from.getIndex(), to.getIndex(), CompactMove.NORMAL);
     }
 
     @Override
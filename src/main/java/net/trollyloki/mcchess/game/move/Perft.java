@@ -0,0 +1,171 @@
+package net.trollyloki.mcchess.game.move;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Square;
+import net.trollyloki.mcchess.game.Game;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the leaf nodes of the legal move tree to verify and benchmark move generation.
+ * <br>
+ * Every interior move is played with {@link Move#play}, so castling and en passant bugs in
+ * {@link CastleMove} and {@link NormalMove} show up as wrong counts.
+ * A perft instance reuses its boards and move arrays, so it is not thread safe.
+ *
+ * @see <a href="https://www.chessprogramming.org/Perft">Perft</a>
+ */
+public class Perft {
+
+    /**
+     * Well known positions with published node counts.
+     *
+     * @see <a href="https://www.chessprogramming.org/Perft_Results">Perft Results</a>
+     */
+    public enum Position {
+        INITIAL(Game.STANDARD_FEN,
+                20, 400, 8902, 197281, 4865609, 119060324),
+        KIWIPETE("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                48, 2039, 97862, 4085603, 193690690),
+        EN_PASSANT("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                14, 191, 2812, 43238, 674624, 11030083),
+        CASTLING("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                6, 264, 9467, 422333, 15833292),
+        PROMOTION("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                44, 1486, 62379, 2103487, 89941194),
+        MIDDLEGAME("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                46, 2079, 89890, 3894594, 164075551);
+
+        private final @NotNull String fen;
+        private final long @NotNull [] nodes;
+
+        Position(@NotNull String fen, long @NotNull ... nodes) {
+            this.fen = fen;
+            this.nodes = nodes;
+        }
+
+        public @NotNull String getFEN() {
+            return fen;
+        }
+
+        /**
+         * Gets the deepest depth with a known node count.
+         *
+         * @return max depth
+         */
+        public int getMaxDepth() {
+            return nodes.length;
+        }
+
+        /**
+         * Gets the known node count at a depth.
+         *
+         * @param depth depth, from {@code 1} to {@link #getMaxDepth()}
+         * @return number of leaf nodes
+         */
+        public long getNodes(int depth) {
+            return nodes[depth - 1];
+        }
+
+    }
+
+    private final @NotNull BitBoard[] boards;
+    private final int @NotNull [][] moves;
+
+    /**
+     * Creates a perft counter.
+     *
+     * @param maxDepth deepest depth that will be searched
+     */
+    public Perft(int maxDepth) {
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("Depth must be at least 1");
+
+        boards = new BitBoard[maxDepth];
+        for (int i = 0; i < boards.length; i++)
+            boards[i] = new BitBoard();
+        moves = new int[maxDepth][MoveGenerator.MAX_MOVES];
+    }
+
+    /**
+     * Counts the leaf nodes from the current position of a game.
+     *
+     * @param game  game, which is not modified
+     * @param depth depth to search to
+     * @return number of leaf nodes
+     */
+    public long count(@NotNull Game game, int depth) {
+        checkDepth(depth);
+        boards[0].copyFrom(game.getPosition());
+        return count(0, depth, game.getActiveColor(), game.getCastlingRights(), game.getEnPassantIndex());
+    }
+
+    /**
+     * Counts the leaf nodes after each legal move from the current position of a game.
+     *
+     * @param game  game, which is not modified
+     * @param depth depth to search to, including the root moves
+     * @return number of leaf nodes by UCI move, in generation order
+     */
+    public @NotNull Map<String, Long> divide(@NotNull Game game, int depth) {
+        checkDepth(depth);
+        BitBoard root = boards[0];
+        root.copyFrom(game.getPosition());
+
+        Color color = game.getActiveColor();
+        int[] rootMoves = moves[0];
+        int count = MoveGenerator.generate(root, color, game.getCastlingRights(), game.getEnPassantIndex(), rootMoves);
+
+        Map<String, Long> divide = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int move = rootMoves[i];
+            if (depth == 1) {
+                divide.put(CompactMove.toUCI(move), 1L);
+                continue;
+            }
+
+            BitBoard child = boards[1];
+            child.copyFrom(root);
+            int enPassantSquare = play(move, child);
+            divide.put(CompactMove.toUCI(move), count(1, depth - 1, color.opposite(),
+                    Game.updateCastlingRights(game.getCastlingRights(), move), enPassantSquare));
+        }
+        return divide;
+    }
+
+    private long count(int ply, int depth, Color color, int castlingRights, int enPassantSquare) {
+        BitBoard board = boards[ply];
+        int[] plyMoves = moves[ply];
+        int count = MoveGenerator.generate(board, color, castlingRights, enPassantSquare, plyMoves);
+        if (depth == 1)
+            return count; // bulk counting, the leaves themselves are never played
+
+        long nodes = 0;
+        BitBoard child = boards[ply + 1];
+        for (int i = 0; i < count; i++) {
+            int move = plyMoves[i];
+            child.copyFrom(board);
+            int childEnPassantSquare = play(move, child);
+            nodes += count(ply + 1, depth - 1, color.opposite(), Game.updateCastlingRights(castlingRights, move), childEnPassantSquare);
+        }
+        return nodes;
+    }
+
+    private void checkDepth(int depth) {
+        if (depth < 1 || depth > boards.length)
+            throw new IllegalArgumentException("Depth must be between 1 and " + boards.length);
+    }
+
+    /**
+     * Plays a packed move and returns the resulting en passant target square index, or {@code -1}.
+     */
+    private static int play(int move, BitBoard board) {
+        Move unpacked = CompactMove.toMove(move, board);
+        unpacked.play(board);
+        return unpacked.getEnPassantSquare().map(Square::getIndex).orElse(-1);
+    }
+
+}
@@ -24,10 +24,15 @@ public class PromotionMove extends NormalMove {
     public void play(@NotNull Board board) {
         super.play(board);
         Optional<Piece> promotionPiece = board.getPieceAt(to)
-                .map(Piece::getColor).map(color -> new Piece(color, promotionType));
+                .map(Piece::getColor).map(color -> Piece.of(color, promotionType));
         promotionPiece.ifPresent(piece -> board.setPieceAt(to, piece));
     }
 
+    @Override
+    public int toCompact() {
+        return CompactMove.promotion(from.getIndex(), to.getIndex(), promotionType);
+    }
+
     @Override
     public @NotNull String toUCI() {
         return super.toUCI() + Character.toLowerCase(promotionType.getLetter());
@@ -0,0 +1,230 @@
+package net.trollyloki.mcchess.game.move;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.Attacks;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.board.Board;
+import net.trollyloki.mcchess.board.Piece;
+import net.trollyloki.mcchess.board.Square;
+import net.trollyloki.mcchess.game.Game;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Parses SAN by scanning the string in place and checking the moves it could describe.
+ * <br>
+ * Pieces that could have made the move are found by looking up attacks backwards from the destination square,
+ * and each is checked with {@link MoveGenerator#isLegal(BitBoard, Color, int, int, int)}, so no move list is generated.
+ * Apart from the resulting move, parsing does not allocate.
+ *
+ * @see Move#fromSAN(String, Game)
+ * @see CompactMove#fromSAN(CharSequence, Game)
+ */
+final class SanParser {
+
+    private SanParser() {
+    }
+
+    private static final Piece.Type[] TYPES = Piece.Type.values();
+    private static final int PAWN = Piece.Type.PAWN.ordinal();
+    private static final long FILE_A = 0x0101010101010101L, RANK_1 = 0xFFL;
+
+    static @NotNull Move parse(@NotNull String san, @NotNull Game game) {
+        int end = san.length();
+        CheckStatus checkStatus = null;
+        if (end > 0 && san.charAt(end - 1) == '+')
+            checkStatus = CheckStatus.CHECK;
+        else if (end > 0 && san.charAt(end - 1) == '#')
+            checkStatus = CheckStatus.CHECKMATE;
+
+        return withCheckStatus(CompactMove.toMove(parsePacked(san, game), game.getPosition()), checkStatus);
+    }
+
+    /**
+     * Parses SAN into a packed move, ignoring any check or checkmate postfix.
+     */
+    static int parsePacked(@NotNull CharSequence san, @NotNull Game game) {
+        return parsePacked(san, game.getPosition(), game.getActiveColor(), game.getCastlingRights(), game.getEnPassantIndex(), false);
+    }
+
+    /**
+     * Parses SAN into a packed move in a position, ignoring any check or checkmate postfix.
+     * <br>
+     * When the move is trusted to be legal, a candidate is only checked with {@link MoveGenerator#isLegal(BitBoard, Color, int, int, int)}
+     * if there is more than one, to tell which the SAN means, and one whose origin square is named is not looked up at all,
+     * so an illegal move may be returned rather than rejected.
+     */
+    static int parsePacked(@NotNull CharSequence san, @NotNull BitBoard position, @NotNull Color color,
+                           int castlingRights, int enPassantSquare, boolean trusted) {
+        int end = san.length();
+        if (end > 0 && (san.charAt(end - 1) == '+' || san.charAt(end - 1) == '#'))
+            end--;
+        if (end == 0)
+            throw invalid(san, "move is empty");
+
+        char first = san.charAt(0);
+        if (first == 'O' || first == '0') {
+            boolean queenside;
+            if (end == 5 && isCastling(san, 5, first))
+                queenside = true;
+            else if (end == 3 && isCastling(san, 3, first))
+                queenside = false;
+            else
+                throw invalid(san, "castling must be written O-O or O-O-O");
+
+            int rank = color.getBackRank() << 3;
+            int move = CompactMove.of(rank + 4, rank + (queenside ? 2 : 6), CompactMove.CASTLING);
+            if (!trusted && !MoveGenerator.isLegal(position, color, castlingRights, enPassantSquare, move))
+                throw invalid(san, color + " cannot castle " + (queenside ? "queenside" : "kingside"));
+            return move;
+        }
+
+        int start = 0;
+        int type = pieceType(san.charAt(0));
+        if (type >= 0)
+            start++; // including an explicit P for a pawn
+        else
+            type = PAWN;
+
+        int promotionType = -1;
+        if (end - start > 2) {
+            promotionType = pieceType(san.charAt(end - 1));
+            if (promotionType >= 0) {
+                end--;
+                if (san.charAt(end - 1) == '=')
+                    end--;
+            }
+        }
+
+        if (end - start < 2)
+            throw invalid(san, "missing destination square");
+        int toFile = san.charAt(end - 2) - 'a', toRank = san.charAt(end - 1) - '1';
+        if (!Board.inBounds(toFile) || !Board.inBounds(toRank))
+            throw invalid(san, "invalid destination square");
+        int to = toRank << 3 | toFile;
+        end -= 2;
+
+        boolean capture = end > start && san.charAt(end - 1) == 'x';
+        if (capture)
+            end--;
+
+        int fromFile = -1, fromRank = -1;
+        for (int i = start; i < end; i++) {
+            char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h' && fromFile < 0 && fromRank < 0)
+                fromFile = c - 'a';
+            else if (c >= '1' && c <= '8' && fromRank < 0)
+                fromRank = c - '1';
+            else
+                throw invalid(san, "unexpected character '" + c + "'");
+        }
+
+        if (type == PAWN && capture && fromFile < 0)
+            throw invalid(san, "pawn captures must name the file they are made from");
+
+        // look backwards from the destination for pieces of the type that could move there,
+        // unless a trusted move names its origin square, which is all there is to find
+        long pieces = position.getPieces(color, TYPES[type]);
+        long occupied = position.getOccupied();
+        long origins = trusted && fromFile >= 0 && fromRank >= 0 ? pieces : switch (TYPES[type]) {
+            case KING -> Attacks.king(to);
+            case QUEEN -> Attacks.queen(to, occupied);
+            case ROOK -> Attacks.rook(to, occupied);
+            case BISHOP -> Attacks.bishop(to, occupied);
+            case KNIGHT -> Attacks.knight(to);
+            case PAWN -> {
+                if (capture)
+                    yield Attacks.pawn(color.opposite(), to);
+                // a pawn only moves straight ahead when it does not capture, and a double push must not jump a piece
+                int backward = -color.getPawnDirection() * 8;
+                int from = to + backward;
+                if (from < 0 || from >= 64)
+                    yield 0L;
+                if (position.getPiece(from) >= 0)
+                    yield 1L << from;
+                int doubleFrom = from + backward;
+                yield doubleFrom >= 0 && doubleFrom < 64 ? 1L << doubleFrom : 0L;
+            }
+        } & pieces;
+        if (fromFile >= 0)
+            origins &= FILE_A << fromFile;
+        if (fromRank >= 0)
+            origins &= RANK_1 << (fromRank << 3);
+
+        boolean promotes = type == PAWN && (toRank == 0 || toRank == 7);
+        if (promotes && promotionType < 0 && origins != 0)
+            throw invalid(san, "missing promotion piece");
+        if (!promotes && promotionType >= 0 && origins != 0)
+            throw invalid(san, "a " + name(type) + " cannot promote on " + Square.of(to));
+
+        boolean checkLegal = !trusted || (origins & origins - 1) != 0;
+        int found = -1, matches = 0;
+        for (; origins != 0; origins &= origins - 1) {
+            int from = Long.numberOfTrailingZeros(origins);
+            int move;
+            if (promotes)
+                move = promotionType == PAWN || promotionType == Piece.Type.KING.ordinal() ? -1 : CompactMove.promotion(from, to, TYPES[promotionType]);
+            else if (type == PAWN && to == enPassantSquare && (from & 7) != toFile)
+                move = CompactMove.of(from, to, CompactMove.EN_PASSANT);
+            else
+                move = CompactMove.of(from, to, CompactMove.NORMAL);
+
+            if (move >= 0 && (!checkLegal || MoveGenerator.isLegal(position, color, castlingRights, enPassantSquare, move))) {
+                found = move;
+                matches++;
+            }
+        }
+
+        if (matches == 0)
+            throw invalid(san, "no " + name(type) + " can move to " + Square.of(to));
+        if (matches > 1)
+            throw invalid(san, "more than one " + name(type) + " can move to " + Square.of(to));
+
+        if (capture && position.getPiece(to) < 0 && CompactMove.getFlag(found) != CompactMove.EN_PASSANT)
+            throw invalid(san, "there is nothing to capture on " + Square.of(to));
+
+        return found;
+    }
+
+    /**
+     * Checks if SAN starts with {@code O-O} or {@code O-O-O}, alternating a letter and {@code -} up to a length.
+     * The letter is {@code O}, or the digit {@code 0} that some exporters write instead.
+     */
+    private static boolean isCastling(@NotNull CharSequence san, int length, char letter) {
+        for (int i = 0; i < length; i++) {
+            if (san.charAt(i) != ((i & 1) == 0 ? letter : '-'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the piece type ordinal for an uppercase SAN letter, or {@code -1} if the character is not one.
+     */
+    private static int pieceType(char letter) {
+        return switch (letter) {
+            case 'K' -> Piece.Type.KING.ordinal();
+            case 'Q' -> Piece.Type.QUEEN.ordinal();
+            case 'R' -> Piece.Type.ROOK.ordinal();
+            case 'B' -> Piece.Type.BISHOP.ordinal();
+            case 'N' -> Piece.Type.KNIGHT.ordinal();
+            case 'P' -> PAWN;
+            default -> -1;
+        };
+    }
+
+    private static @NotNull String name(int type) {
+        return TYPES[type].name().toLowerCase(Locale.ROOT);
+    }
+
+    private static @NotNull Move withCheckStatus(@NotNull Move move, @Nullable CheckStatus checkStatus) {
+        return checkStatus != null ? new CheckMove(move, checkStatus) : move;
+    }
+
+    private static @NotNull IllegalArgumentException invalid(@NotNull CharSequence san, @NotNull String reason) {
+        return new IllegalArgumentException("Invalid SAN " + san + ": " + reason);
+    }
+
+}
@@ -0,0 +1,165 @@
+package net.trollyloki.mcchess.game.player;
+
+import net.trollyloki.mcchess.ChessPlugin;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.game.Game;
+import net.trollyloki.mcchess.game.move.CompactMove;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A computer player that searches with an {@link AlphaBetaSearch} in the plugin itself, for servers without an
+ * external engine.
+ * <br>
+ * The game is copied on the main thread and searched on another thread, one search at a time per player.
+ * Every search is limited by the move time, even when a depth is set.
+ */
+public class AlphaBetaPlayer implements ComputerPlayer {
+
+    /**
+     * Time to search when no move time is set, in milliseconds.
+     */
+    public static final long DEFAULT_MOVE_TIME = 1000L;
+
+    private final @NotNull AlphaBetaSearch search;
+    private volatile boolean closed = false;
+
+    private @NotNull String name = "Built-in Engine";
+    private int depth = AlphaBetaSearch.MAX_PLY;
+    private long moveTime = DEFAULT_MOVE_TIME;
+
+    private volatile @Nullable AlphaBetaSearch.Result lastResult;
+
+    /**
+     * Creates a new built-in engine player.
+     *
+     * @param hashMegabytes size of the transposition table in megabytes
+     */
+    public AlphaBetaPlayer(int hashMegabytes) {
+        this.search = new AlphaBetaSearch(hashMegabytes);
+    }
+
+    @Override
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of this player.
+     *
+     * @param name name
+     */
+    public void setName(@NotNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets the deepest depth to search for best moves, which makes this player weaker and faster.
+     * <br>
+     * The move time still applies.
+     *
+     * @param depth depth, from {@code 1} to {@link AlphaBetaSearch#MAX_PLY}
+     */
+    @Override
+    public void setDepth(int depth) {
+        this.depth = Math.max(1, Math.min(depth, AlphaBetaSearch.MAX_PLY));
+    }
+
+    /**
+     * Sets the time to search for best moves.
+     * <br>
+     * The first iteration of a search is always completed, so a very short move time may be exceeded.
+     *
+     * @param moveTime move time in milliseconds, or {@code 0} for the {@linkplain #DEFAULT_MOVE_TIME default}
+     */
+    @Override
+    public void setMoveTime(long moveTime) {
+        this.moveTime = moveTime > 0 ? moveTime : DEFAULT_MOVE_TIME;
+    }
+
+    /**
+     * Gets the result of the last search, including its node count and speed.
+     *
+     * @return optional result, empty if this player has not searched yet
+     */
+    public @NotNull Optional<AlphaBetaSearch.Result> getLastResult() {
+        return Optional.ofNullable(lastResult);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Boolean> play(@NotNull Game game) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), () -> {
+            if (game.isOver()) {
+                future.complete(false);
+                return;
+            }
+
+            String initialFen = game.getInitialFEN();
+            int[] moves = new int[game.getPlyCount()];
+            for (int i = 0; i < moves.length; i++)
+                moves[i] = game.getCompactMove(i);
+            int depth = this.depth;
+            long moveTime = this.moveTime;
+
+            Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+                try {
+
+                    AlphaBetaSearch.Result result;
+                    synchronized (search) {
+                        search.reset(); // before checking, so a close from now on stops this search
+                        if (closed)
+                            throw new CancellationException("Player is closed");
+
+                        Game copy = Game.fromFEN(initialFen, new BitBoard());
+                        for (int move : moves)
+                            copy.makeMove(move);
+                        result = search.search(copy, depth, moveTime);
+                    }
+                    lastResult = result;
+
+                    Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), () -> {
+                        try {
+
+                            if (closed)
+                                throw new CancellationException("Player is closed");
+                            game.performMove(CompactMove.toMove(result.getMove(), game.getPosition()));
+                            future.complete(true);
+
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Checks if this player is closed.
+     *
+     * @return {@code true} if this player has been closed, otherwise {@code false}
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops the current search without playing its move, and refuses any further searches.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        search.stop();
+    }
+
+}
@@ -0,0 +1,512 @@
+package net.trollyloki.mcchess.game.player;
+
+import net.trollyloki.mcchess.Color;
+import net.trollyloki.mcchess.board.BitBoard;
+import net.trollyloki.mcchess.game.Game;
+import net.trollyloki.mcchess.game.Termination;
+import net.trollyloki.mcchess.game.move.CompactMove;
+import net.trollyloki.mcchess.game.move.MoveGenerator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * An iterative deepening alpha-beta search that runs in the JVM.
+ * <br>
+ * Moves are played with {@link Game#makeMove(int)} and taken back with {@link Game#undoMove()} on a private copy of the
+ * game, so the game's own adjudication detects checkmate, stalemate and draws.
+ * Each iteration starts from the best move of the last one, which the transposition table remembers together with the
+ * score and depth of every position searched. The other moves are ordered captures first (most valuable victim, least
+ * valuable attacker), then killer moves and history, and captures are searched until the position is quiet so that
+ * the evaluation is never taken in the middle of an exchange.
+ * Positions are evaluated by material and piece-square tables, with the king table tapered from the middlegame to the
+ * endgame as pieces come off.
+ * A search instance keeps its transposition table between searches, so it is not thread safe.
+ *
+ * @see <a href="https://www.chessprogramming.org/Simplified_Evaluation_Function">Simplified Evaluation Function</a>
+ */
+public class AlphaBetaSearch {
+
+    /**
+     * Score of being checkmated at the root, scores within {@link #MAX_PLY} of it are mates.
+     */
+    public static final int MATE = 30000;
+    public static final int MAX_PLY = 64;
+    private static final int INFINITY = 32000;
+
+    private static final int EXACT = 0, LOWER = 1, UPPER = 2;
+    private static final int TIME_CHECK_NODES = 2048;
+
+    private static final int KING = 0, PAWN = 5;
+    private static final int[] VALUES = {0, 900, 500, 330, 320, 100}; // by type ordinal
+    private static final int[] PHASES = {0, 4, 2, 1, 1, 0};
+    private static final int MAX_PHASE = 24;
+
+    // piece-square tables by type ordinal, from white's side with a8 first, as they are usually printed
+    private static final int[][] TABLES = {
+            { // king, middlegame
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -20, -30, -30, -40, -40, -30, -30, -20,
+                    -10, -20, -20, -20, -20, -20, -20, -10,
+                    20, 20, 0, 0, 0, 0, 20, 20,
+                    20, 30, 10, 0, 0, 10, 30, 20},
+            { // queen
+                    -20, -10, -10, -5, -5, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 5, 5, 5, 0, -10,
+                    -5, 0, 5, 5, 5, 5, 0, -5,
+                    0, 0, 5, 5, 5, 5, 0, -5,
+                    -10, 5, 5, 5, 5, 5, 0, -10,
+                    -10, 0, 5, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -5, -5, -10, -10, -20},
+            { // rook
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    5, 10, 10, 10, 10, 10, 10, 5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    0, 0, 0, 5, 5, 0, 0, 0},
+            { // bishop
+                    -20, -10, -10, -10, -10, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 10, 10, 5, 0, -10,
+                    -10, 5, 5, 10, 10, 5, 5, -10,
+                    -10, 0, 10, 10, 10, 10, 0, -10,
+                    -10, 10, 10, 10, 10, 10, 10, -10,
+                    -10, 5, 0, 0, 0, 0, 5, -10,
+                    -20, -10, -10, -10, -10, -10, -10, -20},
+            { // knight
+                    -50, -40, -30, -30, -30, -30, -40, -50,
+                    -40, -20, 0, 0, 0, 0, -20, -40,
+                    -30, 0, 10, 15, 15, 10, 0, -30,
+                    -30, 5, 15, 20, 20, 15, 5, -30,
+                    -30, 0, 15, 20, 20, 15, 0, -30,
+                    -30, 5, 10, 15, 15, 10, 5, -30,
+                    -40, -20, 0, 5, 5, 0, -20, -40,
+                    -50, -40, -30, -30, -30, -30, -40, -50},
+            { // pawn
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    50, 50, 50, 50, 50, 50, 50, 50,
+                    10, 10, 20, 30, 30, 20, 10, 10,
+                    5, 5, 10, 25, 25, 10, 5, 5,
+                    0, 0, 0, 20, 20, 0, 0, 0,
+                    5, -5, -10, 0, 0, -10, -5, 5,
+                    5, 10, 10, -20, -20, 10, 10, 5,
+                    0, 0, 0, 0, 0, 0, 0, 0}
+    };
+    private static final int[] KING_ENDGAME_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50
+    };
+
+    // material plus position by piece index and square index, from the piece's own side
+    private static final int[][] MIDDLEGAME = new int[12][64], ENDGAME = new int[12][64];
+
+    static {
+        for (int piece = 0; piece < 12; piece++) {
+            int type = piece % 6;
+            boolean white = piece < 6;
+            for (int square = 0; square < 64; square++) {
+                int row = white ? square ^ 56 : square; // tables are printed with a8 first
+                MIDDLEGAME[piece][square] = VALUES[type] + TABLES[type][row];
+                ENDGAME[piece][square] = VALUES[type] + (type == KING ? KING_ENDGAME_TABLE : TABLES[type])[row];
+            }
+        }
+    }
+
+    private final long @NotNull [] tableKeys, tableData;
+    private final int tableMask;
+
+    private final int @NotNull [][] moves = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int @NotNull [][] scores = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int @NotNull [][] killers = new int[MAX_PLY + 1][2];
+    private final int @NotNull [][] history = new int[12][64];
+
+    private Game game;
+    private BitBoard position;
+    private long nodes, deadline;
+    private boolean timed, aborted;
+    private volatile boolean stopped;
+    private int rootMove, rootScore;
+
+    /**
+     * Creates a search.
+     *
+     * @param hashMegabytes size of the transposition table in megabytes, which is rounded down to a power of two entries
+     */
+    public AlphaBetaSearch(int hashMegabytes) {
+        long entries = Math.max(1, ((long) hashMegabytes << 20) / 16);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 26));
+        this.tableKeys = new long[size];
+        this.tableData = new long[size];
+        this.tableMask = size - 1;
+    }
+
+    /**
+     * The outcome of a search.
+     */
+    public static final class Result {
+
+        private final int move, score, depth;
+        private final long nodes, nanos;
+
+        private Result(int move, int score, int depth, long nodes, long nanos) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Gets the best move found.
+         *
+         * @return packed move
+         * @see CompactMove
+         */
+        public int getMove() {
+            return move;
+        }
+
+        /**
+         * Gets the score of the best move in centipawns, from the side to move.
+         *
+         * @return score, within {@link #MAX_PLY} of {@link #MATE} for a forced mate
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Gets the deepest iteration that was completed.
+         *
+         * @return depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the number of positions searched, including the quiescence search.
+         *
+         * @return number of nodes
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getNodesPerSecond() {
+            return nodes * 1_000_000_000 / Math.max(nanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            return CompactMove.toUCI(move) + " (depth " + depth + ", score " + score + ", " + nodes + " nodes, "
+                    + getNodesPerSecond() + " nps)";
+        }
+
+    }
+
+    /**
+     * Searches for the best move in the current position of a game.
+     * <br>
+     * The game is played on and restored, so it must not be used by anything else during the search.
+     * The search always completes depth one, even if the time runs out first, unless it has been {@linkplain #stop() stopped}
+     * and not {@linkplain #reset() reset} since.
+     *
+     * @param game     game that is not over
+     * @param maxDepth deepest iteration, at most {@link #MAX_PLY}
+     * @param moveTime time to search in milliseconds
+     * @return result
+     * @throws IllegalArgumentException if the game is over
+     */
+    public @NotNull Result search(@NotNull Game game, int maxDepth, long moveTime) {
+        if (game.isOver())
+            throw new IllegalArgumentException("Game is over");
+
+        long start = System.nanoTime();
+        this.game = game;
+        this.position = game.getPosition();
+        this.nodes = 0;
+        this.deadline = start + moveTime * 1_000_000;
+        this.timed = false;
+        this.aborted = false;
+        for (int[] plyKillers : killers)
+            plyKillers[0] = plyKillers[1] = 0;
+        for (int[] pieceHistory : history)
+            Arrays.fill(pieceHistory, 0);
+
+        MoveGenerator.generate(game, moves[0]);
+        int bestMove = moves[0][0], bestScore = 0, completed = 0;
+        for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+            rootMove = 0;
+            int score = search(depth, -INFINITY, INFINITY, 0);
+            if (rootMove != 0) { // a move that was searched fully is at least as good as the last iteration's
+                bestMove = rootMove;
+                bestScore = aborted ? rootScore : score;
+            }
+            if (aborted)
+                break;
+            completed = depth;
+            timed = true;
+            if (Math.abs(score) >= MATE - MAX_PLY)
+                break; // a forced mate will not get any shorter
+        }
+
+        this.game = null;
+        this.position = null;
+        return new Result(bestMove, bestScore, completed, nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Stops the current search as soon as possible, which then returns the best move found so far,
+     * and any later search until {@linkplain #reset() reset}.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Clears a {@linkplain #stop() stop} so the next search runs.
+     * <br>
+     * Searches do not clear it themselves, so a search can be stopped before it starts.
+     */
+    public void reset() {
+        stopped = false;
+    }
+
+    private boolean checkTime() {
+        if (stopped || ++nodes % TIME_CHECK_NODES == 0 && timed && System.nanoTime() - deadline > 0)
+            aborted = true;
+        return aborted;
+    }
+
+    private int search(int depth, int alpha, int beta, int ply) {
+        if (ply > 0) {
+            if (game.isOver())
+                return terminalScore(ply);
+            if (game.getRepetitionCount() >= 2)
+                return 0; // a repetition could be repeated again, so it is as good as a draw
+        }
+        boolean inCheck = game.isInCheck();
+        if (inCheck && ply < MAX_PLY)
+            depth++; // never stop searching in check, where the evaluation is meaningless
+        if (depth <= 0 || ply >= MAX_PLY)
+            return quiesce(alpha, beta, ply);
+        if (checkTime() && ply > 0)
+            return 0;
+
+        long key = game.getKey();
+        int index = (int) key & tableMask;
+        int tableMove = 0;
+        if (tableKeys[index] == key) {
+            long data = tableData[index];
+            tableMove = (int) (data & 0xFFFF);
+            int tableScore = fromTable((int) (data >>> 16 & 0xFFFF) - 32768, ply);
+            int tableDepth = (int) (data >>> 32 & 0xFF), bound = (int) (data >>> 40 & 3);
+            if (ply > 0 && tableDepth >= depth && (bound == EXACT
+                    || bound == LOWER && tableScore >= beta
+                    || bound == UPPER && tableScore <= alpha))
+                return tableScore;
+        }
+
+        int[] plyMoves = moves[ply], plyScores = scores[ply];
+        int count = MoveGenerator.generate(game, plyMoves);
+        orderMoves(plyMoves, plyScores, count, tableMove, ply);
+
+        int originalAlpha = alpha, bestScore = -INFINITY, bestMove = 0;
+        for (int i = 0; i < count; i++) {
+            int move = pickMove(plyMoves, plyScores, count, i);
+            boolean quiet = !isCapture(move) && CompactMove.getFlag(move) != CompactMove.PROMOTION;
+
+            game.makeMove(move);
+            int score;
+            if (i == 0) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                // prove that the move is worse with a null window, and only search it fully if it is not
+                score = -search(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta)
+                    score = -search(depth - 1, -beta, -alpha, ply + 1);
+            }
+            game.undoMove();
+            if (aborted)
+                return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (ply == 0) {
+                    rootMove = move;
+                    rootScore = score;
+                }
+            }
+            if (score > alpha)
+                alpha = score;
+            if (alpha >= beta) {
+                if (quiet) {
+                    if (killers[ply][0] != move) {
+                        killers[ply][1] = killers[ply][0];
+                        killers[ply][0] = move;
+                    }
+                    history[position.getPiece(CompactMove.getFrom(move))][CompactMove.getTo(move)] += depth * depth;
+                }
+                break;
+            }
+        }
+
+        int bound = bestScore >= beta ? LOWER : bestScore > originalAlpha ? EXACT : UPPER;
+        tableKeys[index] = key;
+        tableData[index] = bestMove & 0xFFFF | (long) (toTable(bestScore, ply) + 32768) << 16
+                | (long) Math.min(depth, 255) << 32 | (long) bound << 40;
+        return bestScore;
+    }
+
+    /**
+     * Searches captures and promotions until the position is quiet, assuming the side to move could also stop capturing.
+     * In check, every move is searched instead.
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        if (game.isOver())
+            return terminalScore(ply);
+        if (checkTime())
+            return 0;
+
+        boolean inCheck = game.isInCheck();
+        int bestScore = -INFINITY;
+        if (!inCheck || ply >= MAX_PLY) {
+            bestScore = evaluate();
+            if (bestScore >= beta || ply >= MAX_PLY)
+                return bestScore;
+            if (bestScore > alpha)
+                alpha = bestScore;
+        }
+
+        int[] plyMoves = moves[ply], plyScores = scores[ply];
+        int count = MoveGenerator.generate(game, plyMoves);
+        orderMoves(plyMoves, plyScores, count, 0, ply);
+
+        for (int i = 0; i < count; i++) {
+            int move = pickMove(plyMoves, plyScores, count, i);
+            if (!inCheck && !isCapture(move) && CompactMove.getFlag(move) != CompactMove.PROMOTION)
+                break; // quiet moves are ordered last
+
+            game.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            game.undoMove();
+            if (aborted)
+                return 0;
+
+            if (score > bestScore)
+                bestScore = score;
+            if (score > alpha)
+                alpha = score;
+            if (alpha >= beta)
+                break;
+        }
+        return bestScore;
+    }
+
+    private int terminalScore(int ply) {
+        return game.getTermination().orElse(null) == Termination.CHECKMATE ? -MATE + ply : 0;
+    }
+
+    /**
+     * Evaluates the current position from the side to move.
+     */
+    private int evaluate() {
+        int middlegame = 0, endgame = 0, phase = 0;
+        for (int piece = 0; piece < 12; piece++) {
+            int sign = piece < 6 ? 1 : -1;
+            for (long pieces = position.getPieces(piece); pieces != 0; pieces &= pieces - 1) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                middlegame += sign * MIDDLEGAME[piece][square];
+                endgame += sign * ENDGAME[piece][square];
+                phase += PHASES[piece % 6];
+            }
+        }
+        phase = Math.min(phase, MAX_PHASE);
+        int score = (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+        return game.getActiveColor() == Color.WHITE ? score : -score;
+    }
+
+    private boolean isCapture(int move) {
+        int flag = CompactMove.getFlag(move);
+        if (flag == CompactMove.CASTLING)
+            return false;
+        if (flag == CompactMove.EN_PASSANT || position.getPiece(CompactMove.getTo(move)) >= 0)
+            return true;
+        // en passant may also be packed as a normal diagonal pawn move
+        return position.getPiece(CompactMove.getFrom(move)) % 6 == PAWN
+                && (CompactMove.getFrom(move) & 7) != (CompactMove.getTo(move) & 7);
+    }
+
+    private void orderMoves(int @NotNull [] plyMoves, int @NotNull [] plyScores, int count, int tableMove, int ply) {
+        for (int i = 0; i < count; i++) {
+            int move = plyMoves[i], from = CompactMove.getFrom(move), to = CompactMove.getTo(move);
+            int piece = position.getPiece(from);
+            int score;
+            if (move == tableMove) {
+                score = 1 << 30;
+            } else if (isCapture(move)) {
+                int victim = position.getPiece(to);
+                score = (1 << 29) + (victim >= 0 ? VALUES[victim % 6] : VALUES[PAWN]) * 16 - VALUES[piece % 6] / 16;
+                if (piece % 6 == KING)
+                    score += VALUES[PAWN]; // a king can only capture undefended pieces
+            } else if (CompactMove.getFlag(move) == CompactMove.PROMOTION) {
+                score = (1 << 28) + VALUES[CompactMove.getPromotionType(move).ordinal()];
+            } else if (move == killers[ply][0]) {
+                score = (1 << 27) + 1;
+            } else if (move == killers[ply][1]) {
+                score = 1 << 27;
+            } else {
+                score = Math.min(history[piece][to], (1 << 27) - 1);
+            }
+            plyScores[i] = score;
+        }
+    }
+
+    /**
+     * Moves the best scored move that has not been searched yet to an index, and gets it.
+     */
+    private static int pickMove(int @NotNull [] plyMoves, int @NotNull [] plyScores, int count, int index) {
+        int best = index;
+        for (int i = index + 1; i < count; i++)
+            if (plyScores[i] > plyScores[best])
+                best = i;
+
+        int move = plyMoves[best], score = plyScores[best];
+        plyMoves[best] = plyMoves[index];
+        plyScores[best] = plyScores[index];
+        plyMoves[index] = move;
+        plyScores[index] = score;
+        return move;
+    }
+
+    /**
+     * Converts a mate score to its distance from the position, so that it can be reused at any ply.
+     */
+    private static int toTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score + ply : score <= -MATE + MAX_PLY ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score >= MATE - MAX_PLY ? score - ply : score <= -MATE + MAX_PLY ? score + ply : score;
+    }
+
+}
@@ -0,0 +1,28 @@
+package net.trollyloki.mcchess.game.player;
+
+/**
+ * A player whose moves are chosen by a search, either in an external engine or in this plugin.
+ */
+public interface ComputerPlayer extends ChessPlayer, AutoCloseable {
+
+    /**
+     * Sets the depth to search for best moves.
+     *
+     * @param depth depth
+     */
+    void setDepth(int depth);
+
+    /**
+     * Sets the time to search for best moves.
+     *
+     * @param moveTime move time in milliseconds
+     */
+    void setMoveTime(long moveTime);
+
+    /**
+     * Stops searching and releases any resources held by this player.
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,142 @@
+package net.trollyloki.mcchess.game.player;
+
+import net.andreinc.neatchess.client.model.BestMove;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of engine results, shared by every engine player, that evicts the least recently used entry when full.
+ * <br>
+ * Results are keyed by the position's Zobrist key together with the search limits and engine options, so a position
+ * analysed to a different depth, for a different move time or at a different strength is searched again.
+ * The moves that led to the position are not part of the key, so a cached move may walk into a repetition the engine
+ * would have avoided with the full history. All methods are thread safe.
+ */
+public class EngineCache {
+
+    private final int maxSize;
+    private final @NotNull Map<Key, BestMove> entries;
+    private long hits, misses, evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize most results to keep
+     */
+    public EngineCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BestMove> eldest) {
+                if (size() <= EngineCache.this.maxSize)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the result of a search, counting a hit or a miss.
+     *
+     * @param key      Zobrist key of the position
+     * @param depth    search depth, or {@code 0}
+     * @param moveTime search time in milliseconds, or {@code 0}
+     * @param options  engine options the search was made with
+     * @return best move, or {@code null} if the search is not cached
+     */
+    public synchronized @Nullable BestMove get(long key, int depth, long moveTime, @NotNull Map<String, String> options) {
+        BestMove bestMove = entries.get(new Key(key, depth, moveTime, options));
+        if (bestMove != null)
+            hits++;
+        else
+            misses++;
+        return bestMove;
+    }
+
+    /**
+     * Stores the result of a search.
+     *
+     * @param key      Zobrist key of the position
+     * @param depth    search depth, or {@code 0}
+     * @param moveTime search time in milliseconds, or {@code 0}
+     * @param options  engine options the search was made with
+     * @param bestMove best move
+     */
+    public synchronized void put(long key, int depth, long moveTime, @NotNull Map<String, String> options, @NotNull BestMove bestMove) {
+        entries.put(new Key(key, depth, moveTime, options), bestMove);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes every result and resets the statistics.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = misses = evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "EngineCache{" +
+                "size=" + entries.size() + "/" + maxSize +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", hitRate=" + (lookups == 0 ? 0 : Math.round(hits * 1000.0 / lookups) / 10.0) + "%" +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static final class Key {
+
+        private final long position;
+        private final int depth;
+        private final long moveTime;
+        private final @NotNull Map<String, String> options;
+
+        private Key(long position, int depth, long moveTime, @NotNull Map<String, String> options) {
+            this.position = position;
+            this.depth = depth;
+            this.moveTime = moveTime;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && position == key.position && depth == key.depth && moveTime == key.moveTime
+                    && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((Long.hashCode(position) * 31 + depth) * 31 + Long.hashCode(moveTime)) * 31 + options.hashCode();
+        }
+
+    }
+
+}
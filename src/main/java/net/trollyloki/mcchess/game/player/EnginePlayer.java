@@ -6,17 +6,28 @@ import net.andreinc.neatchess.client.model.BestMove;
 import net.andreinc.neatchess.client.model.EngineInfo;
 import net.trollyloki.mcchess.ChessPlugin;
 import net.trollyloki.mcchess.game.Game;
+import net.trollyloki.mcchess.game.PolyglotBook;
+import net.trollyloki.mcchess.game.move.CompactMove;
 import org.bukkit.Bukkit;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 
-public class EnginePlayer implements ChessPlayer, AutoCloseable {
+public class EnginePlayer implements ComputerPlayer {
 
-    private final @NotNull UCI engine;
-    private boolean closed = false;
+    private final @Nullable UCI engine;
+    private final @Nullable EnginePool pool;
+    private final @NotNull Map<String, String> options = new HashMap<>();
+    private volatile boolean closed = false;
 
     private @NotNull String name;
     private final @NotNull EngineInfo engineInfo;
@@ -25,6 +36,17 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
     private long moveTime = 0;
     private @NotNull Reference<Game> lastGame = new WeakReference<>(null);
 
+    private @NotNull Reference<Game> positionGame = new WeakReference<>(null);
+    private final @NotNull StringBuilder position = new StringBuilder();
+    private int @NotNull [] positionMoves = new int[64], positionOffsets = new int[64];
+    private int positionPlies = 0;
+    private @Nullable PolyglotBook book;
+    private @Nullable EngineCache cache;
+
+    private boolean ponder = false;
+    private volatile @Nullable String ponderPosition;
+    private int searches = 0;
+
     /**
      * Creates a new engine player.
      * <br>
@@ -34,6 +56,7 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
      * @param defaultTimeout default command timeout in milliseconds
      */
     public EnginePlayer(@NotNull String engine, long defaultTimeout) {
+        this.pool = null;
         this.engine = new UCI(defaultTimeout);
         try {
 
@@ -57,6 +80,18 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
         this(engine, 60000L);
     }
 
+    /**
+     * Creates a new engine player that leases a process from a pool for each move, instead of starting its own.
+     *
+     * @param pool engine pool
+     */
+    public EnginePlayer(@NotNull EnginePool pool) {
+        this.pool = pool;
+        this.engine = null;
+        this.engineInfo = pool.getEngineInfo();
+        this.name = engineInfo.getName();
+    }
+
     @Override
     public @NotNull String getName() {
         return name;
@@ -75,8 +110,18 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
         return engineInfo;
     }
 
+    /**
+     * Sets an engine option.
+     * <br>
+     * Pooled engine players send their options to whichever process they lease.
+     *
+     * @param option option name
+     * @param value  option value
+     */
     public void setOption(@NotNull String option, @NotNull String value) {
-        engine.setOption(option, value);
+        options.put(option, value);
+        if (engine != null)
+            engine.setOption(option, value);
     }
 
     public void setThreads(int threads) {
@@ -102,6 +147,7 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
      *
      * @param depth depth
      */
+    @Override
     public void setDepth(int depth) {
         this.depth = depth;
         this.moveTime = 0;
@@ -114,12 +160,58 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
      *
      * @param moveTime move time in milliseconds
      */
+    @Override
     public void setMoveTime(long moveTime) {
         this.moveTime = moveTime;
         this.depth = 0;
     }
 
-    private UCIResponse<BestMove> bestMove() {
+    /**
+     * Sets the opening book to play from before asking the engine.
+     * <br>
+     * While a position is in the book, a weighted book move is played immediately instead of searching.
+     *
+     * @param book book, or {@code null} to always ask the engine
+     */
+    public void setBook(@Nullable PolyglotBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Sets the cache to look up and store engine results in.
+     * <br>
+     * A position that has already been searched with the same limits and options is answered from the cache
+     * immediately. Results are not cached while {@code UCI_LimitStrength} is set, since a weakened engine is meant to
+     * vary its play.
+     *
+     * @param cache cache, or {@code null} to always ask the engine
+     */
+    public void setCache(@Nullable EngineCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets whether to keep searching on the expected reply while the opponent is thinking.
+     * <br>
+     * When the opponent plays the expected reply, the engine is told {@code ponderhit} and answers with the search it
+     * has already done, otherwise the ponder search is stopped and a new one is started.
+     * Pooled engine players never ponder, because that would keep a process from the other games,
+     * and neither does an engine player that is also its own opponent.
+     *
+     * @param ponder {@code true} to ponder
+     */
+    public void setPonder(boolean ponder) {
+        this.ponder = ponder;
+    }
+
+    private @NotNull String getLimits(@NotNull UCI engine) {
+        if (depth != 0)
+            return "depth " + depth;
+        else
+            return "movetime " + (moveTime != 0 ? moveTime : engine.getDefaultTimeout());
+    }
+
+    private UCIResponse<BestMove> bestMove(@NotNull UCI engine) {
         if (depth != 0)
             return engine.bestMove(depth);
         else if (moveTime != 0)
@@ -132,28 +224,103 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
     public @NotNull CompletableFuture<Boolean> play(@NotNull Game game) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
         Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), () -> {
-            String fen = game.toFEN();
-
-            Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+            if (book != null) {
                 try {
 
-                    if (!lastGame.refersTo(game)) {
-                        engine.uciNewGame();
-                        lastGame = new WeakReference<>(game);
+                    int bookMove = book.pickMove(game, ThreadLocalRandom.current());
+                    if (bookMove >= 0) {
+                        game.performMove(CompactMove.toMove(bookMove, game.getPosition()));
+                        future.complete(true);
+                        return;
                     }
-                    engine.positionFen(fen);
 
-                    String bestMove = bestMove().getResultOrThrow().getCurrent();
-                    Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), () -> {
-                        try {
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+            }
+
+            Map<String, String> options = Map.copyOf(this.options);
+            EngineCache cache = Boolean.parseBoolean(options.get("UCI_LimitStrength")) ? null : this.cache;
+            long key = game.getKey();
+            int depth = this.depth;
+            long moveTime = this.moveTime;
+            if (cache != null) {
+                BestMove cached = cache.get(key, depth, moveTime, options);
+                if (cached != null) {
+                    try {
+
+                        game.performUciMove(cached.getCurrent());
+                        future.complete(true);
+                        return;
+
+                    } catch (IllegalArgumentException e) {
+                        // a different position with the same key, search it instead
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                }
+            }
+
+            String position = getPosition(game);
+            boolean ponder = this.ponder && game.getPlayer(game.getActiveColor().opposite()).orElse(null) != this;
+
+            if (pool != null) {
+                pool.lease(game).thenAccept(lease -> Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+                    try {
+                        BestMove bestMove = search(lease.begin(options), position);
+                        if (cache != null)
+                            cache.put(key, depth, moveTime, options, bestMove);
+                        perform(game, bestMove.getCurrent(), future);
+                    } catch (Exception e) {
+                        lease.fail();
+                        future.completeExceptionally(e);
+                    } finally {
+                        lease.close();
+                    }
+                })).exceptionally(e -> {
+                    future.completeExceptionally(e);
+                    return null;
+                });
+                return;
+            }
 
-                            game.performUciMove(bestMove);
-                            future.complete(true);
+            Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+                try {
+
+                    //noinspection DataFlowIssue
+                    synchronized (engine) {
+                        int search = ++searches;
+                        BestMove bestMove = null;
+                        String pondered = ponderPosition;
+                        if (pondered != null) {
+                            ponderPosition = null;
+                            boolean hit = pondered.equals(position) && lastGame.refersTo(game);
+                            BestMove ponderResult = stopPondering(engine, hit);
+                            if (hit)
+                                bestMove = ponderResult;
+                        }
 
-                        } catch (Exception e) {
-                            future.completeExceptionally(e);
+                        if (!lastGame.refersTo(game)) {
+                            engine.uciNewGame();
+                            lastGame = new WeakReference<>(game);
+                        }
+                        if (bestMove == null)
+                            bestMove = search(engine, position);
+                        if (cache != null)
+                            cache.put(key, depth, moveTime, options, bestMove);
+
+                        if (ponder && bestMove.getPonder() != null) {
+                            // runs on the main thread once the move is performed, so the game can be checked
+                            BestMove expected = bestMove;
+                            future.thenAccept(moved -> {
+                                if (!game.isOver())
+                                    Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> ponder(engine, search, position, expected));
+                            });
                         }
-                    });
+                        perform(game, bestMove.getCurrent(), future);
+                    }
 
                 } catch (Exception e) {
                     future.completeExceptionally(e);
@@ -164,6 +331,138 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
         return future;
     }
 
+    /**
+     * Builds the arguments of a {@code position fen} command for the current position in a game: its initial position
+     * followed by every move played since.
+     * <br>
+     * Sending the whole history lets the engine detect repetitions and recognise the position as a continuation of its
+     * last search. The command is kept between calls and only the moves played since are appended,
+     * after cutting off any moves that were taken back.
+     */
+    private @NotNull String getPosition(@NotNull Game game) {
+        int plies = game.getPlyCount();
+        int common = 0;
+        if (positionGame.refersTo(game)) {
+            int limit = Math.min(plies, positionPlies);
+            while (common < limit && positionMoves[common] == game.getCompactMove(common))
+                common++;
+            position.setLength(positionOffsets[common]);
+        } else {
+            positionGame = new WeakReference<>(game);
+            position.setLength(0);
+            position.append(game.getInitialFEN());
+            positionOffsets[0] = position.length();
+        }
+
+        if (plies >= positionMoves.length) {
+            positionMoves = Arrays.copyOf(positionMoves, plies * 2);
+            positionOffsets = Arrays.copyOf(positionOffsets, plies * 2);
+        }
+        for (int ply = common; ply < plies; ply++) {
+            int move = game.getCompactMove(ply);
+            position.append(ply == 0 ? " moves " : " ").append(CompactMove.toUCI(move));
+            positionMoves[ply] = move;
+            positionOffsets[ply + 1] = position.length();
+        }
+        positionPlies = plies;
+        return position.toString();
+    }
+
+    /**
+     * Asks an engine for its best move in a position.
+     */
+    private @NotNull BestMove search(@NotNull UCI engine, @NotNull String position) {
+        engine.positionFen(position);
+        return bestMove(engine).getResultOrThrow();
+    }
+
+    /**
+     * Performs a move on the main thread.
+     */
+    private void perform(@NotNull Game game, @NotNull String move, @NotNull CompletableFuture<Boolean> future) {
+        Bukkit.getScheduler().runTask(ChessPlugin.getInstance(), () -> {
+            try {
+
+                game.performUciMove(move);
+                future.complete(true);
+
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Starts pondering after a search, unless the engine has been asked for another move since or has been closed.
+     */
+    private void ponder(@NotNull UCI engine, int search, @NotNull String position, @NotNull BestMove bestMove) {
+        synchronized (engine) {
+            if (closed || search != searches)
+                return;
+            try {
+                startPondering(engine, position, bestMove);
+            } catch (Exception e) {
+                ChessPlugin.getInstance().getLogger().log(Level.WARNING, "Failed to start pondering", e);
+            }
+        }
+    }
+
+    /**
+     * Stops pondering without waiting for the engine, for when the game it is pondering on has ended or been replaced.
+     * <br>
+     * This also cancels pondering that is about to start after the last move.
+     */
+    public void stopPondering() {
+        if (engine == null)
+            return;
+
+        Bukkit.getScheduler().runTaskAsynchronously(ChessPlugin.getInstance(), () -> {
+            synchronized (engine) {
+                searches++;
+                if (closed || ponderPosition == null)
+                    return;
+                ponderPosition = null;
+                try {
+                    stopPondering(engine, false);
+                } catch (Exception e) {
+                    ChessPlugin.getInstance().getLogger().log(Level.WARNING, "Failed to stop pondering", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts searching the position after a best move and the reply the engine expects to it, without waiting for it.
+     * <br>
+     * The {@code isready} sent after {@code go ponder} is answered while the engine searches, which confirms the search
+     * has started without reading any of its output.
+     */
+    private void startPondering(@NotNull UCI engine, @NotNull String position, @NotNull BestMove bestMove) {
+        String ponderPosition = position + (position.contains(" moves ") ? " " : " moves ")
+                + bestMove.getCurrent() + " " + bestMove.getPonder();
+        engine.positionFen(ponderPosition);
+        engine.command("go ponder " + getLimits(engine) + "\nisready", lines -> true,
+                line -> line.equals("readyok"), engine.getDefaultTimeout()).getResultOrThrow();
+        this.ponderPosition = ponderPosition;
+    }
+
+    /**
+     * Ends the ponder search, with {@code ponderhit} to let it finish as a normal search or {@code stop} to abandon it.
+     *
+     * @return best move the search ended with
+     */
+    private @NotNull BestMove stopPondering(@NotNull UCI engine, boolean hit) {
+        return engine.command(hit ? "ponderhit" : "stop", EnginePlayer::parseBestMove,
+                line -> line.startsWith("bestmove"), engine.getDefaultTimeout() + moveTime).getResultOrThrow();
+    }
+
+    private static @NotNull BestMove parseBestMove(@NotNull List<String> lines) {
+        String[] split = lines.get(lines.size() - 1).split(" ");
+        if (split.length < 2)
+            throw new IllegalStateException("Invalid bestmove line: " + String.join(" ", split));
+        return new BestMove(split[1], split.length >= 4 && split[2].equals("ponder") ? split[3] : null);
+    }
+
     /**
      * Checks if the engine is closed.
      *
@@ -174,14 +473,15 @@ public class EnginePlayer implements ChessPlayer, AutoCloseable {
     }
 
     /**
-     * Kills the engine process.
+     * Kills the engine process, unless it belongs to a pool.
      */
     @Override
     public void close() {
         if (closed)
             return;
 
-        engine.close();
+        if (engine != null)
+            engine.close();
         closed = true;
     }
 
@@ -0,0 +1,266 @@
+package net.trollyloki.mcchess.game.player;
+
+import net.andreinc.neatchess.client.UCI;
+import net.andreinc.neatchess.client.model.EngineInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A fixed number of warm engine processes that are shared by any number of {@link EnginePlayer}s.
+ * <br>
+ * A player leases a process for one move request and returns it as soon as the engine has answered.
+ * When every process is busy, requests wait in one queue per owner (usually a game), and the queues are served
+ * round-robin, so a game that keeps asking for moves cannot starve the others.
+ * A process that is leased by a different owner than last time is reset with {@code ucinewgame} and given the
+ * lessee's options, so no search state leaks between games.
+ */
+public class EnginePool implements AutoCloseable {
+
+    private final @NotNull String command;
+    private final long defaultTimeout;
+    private final @NotNull Map<String, String> defaultOptions;
+    private final @NotNull EngineInfo engineInfo;
+
+    private final @NotNull List<EngineProcess> processes = new ArrayList<>();
+    private final @NotNull ArrayDeque<EngineProcess> idle = new ArrayDeque<>();
+    private final @NotNull Map<Object, ArrayDeque<CompletableFuture<Lease>>> waiting = new LinkedHashMap<>();
+    private boolean closed = false;
+
+    /**
+     * Creates a pool and starts all of its engine processes.
+     * <br>
+     * <strong>Note:</strong> This starts separate processes on the machine and waits for them, so it should not be
+     * called on the main thread!
+     *
+     * @param command        path to the engine executable
+     * @param size           number of processes
+     * @param defaultTimeout default command timeout in milliseconds
+     * @param defaultOptions options every process is given when it starts, and reset to when a lessee has not set them
+     */
+    public EnginePool(@NotNull String command, int size, long defaultTimeout, @NotNull Map<String, String> defaultOptions) {
+        if (size < 1)
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        this.command = command;
+        this.defaultTimeout = defaultTimeout;
+        this.defaultOptions = Map.copyOf(defaultOptions);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                EngineProcess process = new EngineProcess();
+                processes.add(process);
+                idle.add(process);
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        this.engineInfo = processes.get(0).info;
+    }
+
+    /**
+     * Gets information about the engine that this pool runs.
+     *
+     * @return engine info
+     */
+    public @NotNull EngineInfo getEngineInfo() {
+        return engineInfo;
+    }
+
+    /**
+     * Gets the number of processes in this pool.
+     *
+     * @return pool size
+     */
+    public int getSize() {
+        return processes.size();
+    }
+
+    /**
+     * Leases an engine process.
+     * <br>
+     * The returned future is completed as soon as a process is free, which may be immediately, on the thread that
+     * returned it, so any work should be done asynchronously. The lease must always be {@linkplain Lease#close() closed}.
+     *
+     * @param owner owner to schedule the request under, such as the game the move is for
+     * @return future lease
+     */
+    public synchronized @NotNull CompletableFuture<Lease> lease(@NotNull Object owner) {
+        CompletableFuture<Lease> future = new CompletableFuture<>();
+        if (closed || processes.isEmpty()) {
+            future.completeExceptionally(new CancellationException("Engine pool is " + (closed ? "closed" : "empty")));
+        } else if (!idle.isEmpty() && waiting.isEmpty()) {
+            future.complete(new Lease(idle.poll(), owner));
+        } else {
+            waiting.computeIfAbsent(owner, key -> new ArrayDeque<>()).add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Hands a free process to the owner at the head of the round-robin, or marks it idle.
+     */
+    private synchronized void release(@NotNull EngineProcess process) {
+        if (closed) {
+            process.engine.close();
+            return;
+        }
+
+        while (!waiting.isEmpty()) {
+            Object owner = waiting.keySet().iterator().next();
+            ArrayDeque<CompletableFuture<Lease>> queue = waiting.remove(owner);
+            CompletableFuture<Lease> future = queue.poll();
+            if (!queue.isEmpty())
+                waiting.put(owner, queue); // back of the round-robin
+
+            if (future.complete(new Lease(process, owner)))
+                return;
+            // the request was cancelled, try the next one
+        }
+        idle.add(process);
+    }
+
+    /**
+     * Replaces a process that has failed with a new one, or shrinks the pool if a new one cannot be started.
+     */
+    private void replace(@NotNull EngineProcess process) {
+        process.engine.close();
+        EngineProcess replacement;
+        try {
+            replacement = new EngineProcess();
+        } catch (Exception e) {
+            synchronized (this) {
+                processes.remove(process);
+                if (processes.isEmpty())
+                    cancelWaiting("Engine pool is empty");
+            }
+            return;
+        }
+        synchronized (this) {
+            processes.set(processes.indexOf(process), replacement);
+        }
+        release(replacement);
+    }
+
+    /**
+     * Kills every process and cancels every waiting request.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        for (EngineProcess process : idle)
+            process.engine.close();
+        idle.clear();
+        cancelWaiting("Engine pool is closed");
+    }
+
+    private void cancelWaiting(@NotNull String reason) {
+        for (ArrayDeque<CompletableFuture<Lease>> queue : waiting.values())
+            for (CompletableFuture<Lease> future : queue)
+                future.completeExceptionally(new CancellationException(reason));
+        waiting.clear();
+    }
+
+    private final class EngineProcess {
+
+        private final @NotNull UCI engine;
+        private final @NotNull EngineInfo info;
+        private final @NotNull Map<String, String> options = new HashMap<>();
+        private @NotNull Reference<Object> lastOwner = new WeakReference<>(null);
+
+        private EngineProcess() {
+            this.engine = new UCI(defaultTimeout);
+            try {
+                this.info = engine.start(command).getResultOrThrow();
+                for (Map.Entry<String, String> option : defaultOptions.entrySet())
+                    engine.setOption(option.getKey(), option.getValue());
+                options.putAll(defaultOptions);
+            } catch (Exception e) {
+                engine.close();
+                throw e;
+            }
+        }
+
+    }
+
+    /**
+     * One engine process, leased to one owner until it is closed.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final @NotNull EngineProcess process;
+        private final @NotNull Object owner;
+        private boolean released = false, failed = false;
+
+        private Lease(@NotNull EngineProcess process, @NotNull Object owner) {
+            this.process = process;
+            this.owner = owner;
+        }
+
+        /**
+         * Prepares the process for the owner and gets it.
+         * <br>
+         * If the process last served a different owner, it is sent {@code ucinewgame}.
+         * Options that differ from the ones the process has are then sent, with options that are not given reset to the
+         * pool's defaults.
+         *
+         * @param options options the lessee wants
+         * @return engine
+         */
+        public @NotNull UCI begin(@NotNull Map<String, String> options) {
+            UCI engine = process.engine;
+            if (!process.lastOwner.refersTo(owner)) {
+                engine.uciNewGame();
+                process.lastOwner = new WeakReference<>(owner);
+            }
+
+            Map<String, String> wanted = new HashMap<>(defaultOptions);
+            wanted.putAll(options);
+            for (Map.Entry<String, String> option : wanted.entrySet()) {
+                if (!option.getValue().equals(process.options.get(option.getKey()))) {
+                    engine.setOption(option.getKey(), option.getValue());
+                    process.options.put(option.getKey(), option.getValue());
+                }
+            }
+            return engine;
+        }
+
+        /**
+         * Marks the process as broken, so that it is replaced instead of being reused when this lease is closed.
+         */
+        public void fail() {
+            failed = true;
+        }
+
+        /**
+         * Returns the process to the pool.
+         * <br>
+         * If the lease {@linkplain #fail() failed}, a new process is started first, on the calling thread.
+         */
+        @Override
+        public void close() {
+            if (released)
+                return;
+            released = true;
+
+            if (failed)
+                replace(process);
+            else
+                release(process);
+        }
+
+    }
+
+}